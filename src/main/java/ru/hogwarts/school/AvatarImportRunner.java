@@ -0,0 +1,48 @@
+package ru.hogwarts.school;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.model.AvatarImportFailure;
+import ru.hogwarts.school.model.AvatarImportReport;
+import ru.hogwarts.school.service.AvatarImportService;
+
+import java.nio.file.Path;
+
+@Component
+public class AvatarImportRunner implements ApplicationRunner {
+    static final String OPTION = "import-avatars";
+
+    private static final Logger log = LoggerFactory.getLogger(AvatarImportRunner.class);
+
+    private final AvatarImportService avatarImportService;
+    private final ApplicationContext context;
+
+    public AvatarImportRunner(AvatarImportService avatarImportService, ApplicationContext context) {
+        this.avatarImportService = avatarImportService;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!args.containsOption(OPTION)) {
+            return;
+        }
+        boolean failed = false;
+        for (String source : args.getOptionValues(OPTION)) {
+            AvatarImportReport report = avatarImportService.importAndWait(Path.of(source));
+            log.info("Imported {} of {} avatars from {} in {} ms ({} files/s)", report.imported(), report.total(),
+                    source, report.elapsedMillis(), String.format("%.1f", report.filesPerSecond()));
+            for (AvatarImportFailure failure : report.failures()) {
+                log.warn("{}: {}", failure.fileName(), failure.reason());
+            }
+            failed |= report.status() != AvatarImportReport.Status.DONE || report.failed() > 0;
+        }
+        int exitCode = failed ? 1 : 0;
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+}
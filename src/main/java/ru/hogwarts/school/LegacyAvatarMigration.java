@@ -0,0 +1,79 @@
+package ru.hogwarts.school;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.service.AvatarService;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Moves the avatars saved before content-addressed storage into it on startup. Such an avatar has no content
+ * hash; its bytes are the file at its path, or the old {@code data} column, which ddl-auto=update leaves in
+ * place, if the file is gone. Each avatar moves in its own transaction, so a run that stops part way carries
+ * on at the next start, and an avatar with no bytes left is reported and kept as it is.
+ */
+@Component
+public class LegacyAvatarMigration implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(LegacyAvatarMigration.class);
+
+    private static final int BATCH_SIZE = 100;
+
+    private final AvatarRepository avatarRepository;
+    private final AvatarService avatarService;
+    private final JdbcTemplate jdbcTemplate;
+
+    public LegacyAvatarMigration(AvatarRepository avatarRepository, AvatarService avatarService,
+                                 JdbcTemplate jdbcTemplate) {
+        this.avatarRepository = avatarRepository;
+        this.avatarService = avatarService;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Boolean dataColumn = null;
+        int migrated = 0;
+        int left = 0;
+        long after = 0;
+        List<Long> ids;
+        while (!(ids = avatarRepository.findLegacyIds(after, PageRequest.of(0, BATCH_SIZE))).isEmpty()) {
+            if (dataColumn == null) {
+                dataColumn = hasDataColumn();
+            }
+            for (Long id : ids) {
+                try {
+                    byte[] data = dataColumn
+                            ? jdbcTemplate.queryForObject("select data from avatar where id = ?", byte[].class, id)
+                            : null;
+                    if (avatarService.migrateLegacyAvatar(id, data)) {
+                        migrated++;
+                    } else {
+                        log.warn("Legacy avatar {} has neither a file nor data to migrate", id);
+                        left++;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Could not migrate legacy avatar {}", id, e);
+                    left++;
+                }
+            }
+            after = ids.get(ids.size() - 1);
+        }
+        if (migrated + left > 0) {
+            log.info("Migrated {} legacy avatars, {} left as they were", migrated, left);
+        }
+    }
+
+    private boolean hasDataColumn() {
+        Integer columns = jdbcTemplate.queryForObject("select count(*) from information_schema.columns "
+                + "where table_schema = current_schema() and table_name = 'avatar' and column_name = 'data'",
+                Integer.class);
+        return columns != null && columns > 0;
+    }
+}
@@ -1,12 +1,20 @@
 package ru.hogwarts.school;
 
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import java.util.Arrays;
+
 @SpringBootApplication
 public class SchoolApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(SchoolApplication.class, args);
+        SpringApplication application = new SpringApplication(SchoolApplication.class);
+        // A command-line import runs once and exits, so it does not need the web server.
+        if (Arrays.stream(args).anyMatch(arg -> arg.startsWith("--" + AvatarImportRunner.OPTION))) {
+            application.setWebApplicationType(WebApplicationType.NONE);
+        }
+        application.run(args);
     }
-}
\ No newline at end of file
+}
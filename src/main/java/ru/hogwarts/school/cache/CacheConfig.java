@@ -0,0 +1,62 @@
+package ru.hogwarts.school.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.support.AbstractCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.hogwarts.school.model.CacheStats;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-through caches in front of the student and faculty services, evicted by the writes made through them.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    public static final String FACULTIES = "faculties";
+    public static final String FACULTY_PAGES = "facultyPages";
+    public static final String STUDENTS = "students";
+    public static final String FACULTY_STUDENTS = "facultyStudents";
+    public static final String VERSIONS = "versions";
+
+    @Bean
+    public ExpiringCacheManager cacheManager(@Value("${cache.ttl-seconds:300}") long ttlSeconds,
+                                             @Value("${cache.max-entries:10000}") int maxEntries,
+                                             @Value("${cache.load-timeout-millis:2000}") long loadTimeoutMillis) {
+        long ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        long loadTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(loadTimeoutMillis);
+        List<ExpiringCache> caches = List.of(FACULTIES, FACULTY_PAGES, STUDENTS, FACULTY_STUDENTS, VERSIONS).stream()
+                .map(name -> new ExpiringCache(name, ttlNanos, maxEntries, loadTimeoutNanos))
+                .toList();
+        return new ExpiringCacheManager(caches);
+    }
+
+    public static class ExpiringCacheManager extends AbstractCacheManager {
+        private final List<ExpiringCache> caches;
+
+        ExpiringCacheManager(List<ExpiringCache> caches) {
+            this.caches = caches;
+        }
+
+        @Override
+        protected Collection<? extends Cache> loadCaches() {
+            return caches;
+        }
+
+        public List<CacheStats> getStats() {
+            return caches.stream().map(ExpiringCache::getStats).toList();
+        }
+
+        /**
+         * Empties every cache right away, even inside a transaction.
+         */
+        public void clearAll() {
+            caches.forEach(ExpiringCache::invalidate);
+        }
+    }
+}
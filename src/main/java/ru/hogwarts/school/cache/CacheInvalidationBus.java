@@ -0,0 +1,285 @@
+package ru.hogwarts.school.cache;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the in-process caches of several application instances in step. Writes made through the services
+ * are published on a Postgres channel with {@code pg_notify}, which Postgres delivers only once the writing
+ * transaction commits and drops on rollback. Every instance listens on one dedicated connection and evicts
+ * what the others changed, then hands the ids to the handlers registered for that entity.
+ * <p>
+ * A change is normally seen elsewhere within the notification latency. A reader that loaded the old row just
+ * before the commit may still cache it after the eviction; {@link ExpiringCache} bounds that by its time to
+ * live. Notifications sent while the listening connection is down are lost, so once it is back every local
+ * cache is dropped and the missed-change handlers run.
+ */
+@Component
+public class CacheInvalidationBus implements SmartLifecycle {
+    private static final Logger log = LoggerFactory.getLogger(CacheInvalidationBus.class);
+
+    static final String NOTIFY = "select pg_notify(?, ?)";
+    // Postgres rejects payloads of 8000 bytes or more.
+    static final int MAX_PAYLOAD = 7900;
+    private static final Pattern CHANNEL = Pattern.compile("[a-z_][a-z0-9_]*");
+
+    public enum Entity {
+        STUDENT, FACULTY, AVATAR
+    }
+
+    private final String node = UUID.randomUUID().toString();
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSource dataSource;
+    private final CacheConfig.ExpiringCacheManager cacheManager;
+    private final boolean enabled;
+    private final String channel;
+    private final int pollMillis;
+    private final long reconnectMillis;
+    private final Map<Entity, List<Consumer<Collection<Long>>>> handlers = new EnumMap<>(Entity.class);
+    private final List<Runnable> missedHandlers = new CopyOnWriteArrayList<>();
+    private final List<Runnable> restartHandlers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running;
+    private Thread listener;
+
+    public CacheInvalidationBus(JdbcTemplate jdbcTemplate, DataSource dataSource,
+                                CacheConfig.ExpiringCacheManager cacheManager,
+                                @Value("${cache.invalidation.enabled:true}") boolean enabled,
+                                @Value("${cache.invalidation.channel:school_cache}") String channel,
+                                @Value("${cache.invalidation.poll-millis:500}") int pollMillis,
+                                @Value("${cache.invalidation.reconnect-millis:2000}") long reconnectMillis) {
+        if (!CHANNEL.matcher(channel).matches()) {
+            throw new IllegalArgumentException("Invalid cache invalidation channel " + channel);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSource = dataSource;
+        this.cacheManager = cacheManager;
+        this.enabled = enabled;
+        this.channel = channel;
+        this.pollMillis = pollMillis;
+        this.reconnectMillis = reconnectMillis;
+        for (Entity entity : Entity.values()) {
+            handlers.put(entity, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    /**
+     * Runs the handler on the listener thread with the ids of the entities another instance changed.
+     */
+    public void onRemoteChange(Entity entity, Consumer<Collection<Long>> handler) {
+        handlers.get(entity).add(handler);
+    }
+
+    /**
+     * Runs the handler whenever changes made elsewhere may have gone unseen, that is after the listening
+     * connection was lost and re-established. In-memory state needs nothing on the first connect, since it
+     * starts empty; state kept across restarts registers with {@link #onMissedChangesOrRestart} instead.
+     */
+    public void onMissedChanges(Runnable handler) {
+        missedHandlers.add(handler);
+    }
+
+    /**
+     * Like {@link #onMissedChanges}, but also runs on the first connect: state that survives a restart has
+     * missed every change other instances made while this one was down.
+     */
+    public void onMissedChangesOrRestart(Runnable handler) {
+        restartHandlers.add(handler);
+    }
+
+    /**
+     * Tells the other instances the entities changed. Inside a transaction the notification joins it, so it
+     * is sent on commit or not at all; call this from the method making the change.
+     */
+    public void publish(Entity entity, Collection<Long> ids) {
+        if (!enabled || ids.isEmpty()) {
+            return;
+        }
+        String prefix = node + " " + entity + " ";
+        StringBuilder payload = new StringBuilder(prefix);
+        for (Long id : ids) {
+            String value = String.valueOf(id);
+            if (payload.length() > prefix.length() && payload.length() + 1 + value.length() > MAX_PAYLOAD) {
+                notify(payload.toString());
+                payload.setLength(prefix.length());
+            }
+            if (payload.length() > prefix.length()) {
+                payload.append(',');
+            }
+            payload.append(value);
+        }
+        notify(payload.toString());
+    }
+
+    private void notify(String payload) {
+        jdbcTemplate.query(NOTIFY, rs -> null, channel, payload);
+    }
+
+    void received(String payload) {
+        String[] parts = payload.split(" ", 3);
+        if (parts.length != 3 || parts[0].equals(node)) {
+            return;
+        }
+        Entity entity;
+        List<Long> ids = new ArrayList<>();
+        try {
+            entity = Entity.valueOf(parts[1]);
+            for (String id : parts[2].split(",")) {
+                ids.add(Long.valueOf(id));
+            }
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring malformed cache invalidation {}", payload);
+            return;
+        }
+        evict(entity, ids);
+        for (Consumer<Collection<Long>> handler : handlers.get(entity)) {
+            try {
+                handler.accept(ids);
+            } catch (RuntimeException e) {
+                log.warn("Cache invalidation handler failed for {} {}", entity, ids, e);
+            }
+        }
+    }
+
+    /**
+     * Mirrors the evictions the services declare for their own writes.
+     */
+    private void evict(Entity entity, Collection<Long> ids) {
+        switch (entity) {
+            case STUDENT -> {
+                Cache students = cacheManager.getCache(CacheConfig.STUDENTS);
+                ids.forEach(students::evict);
+                cacheManager.getCache(CacheConfig.FACULTY_STUDENTS).invalidate();
+                cacheManager.getCache(CacheConfig.VERSIONS).invalidate();
+            }
+            case FACULTY -> {
+                for (String name : List.of(CacheConfig.FACULTIES, CacheConfig.FACULTY_PAGES,
+                        CacheConfig.STUDENTS, CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS)) {
+                    cacheManager.getCache(name).invalidate();
+                }
+            }
+            case AVATAR -> {
+            }
+        }
+    }
+
+    void missedChanges() {
+        cacheManager.clearAll();
+        runAll(missedHandlers);
+        runAll(restartHandlers);
+    }
+
+    void restarted() {
+        runAll(restartHandlers);
+    }
+
+    private static void runAll(List<Runnable> handlers) {
+        for (Runnable handler : handlers) {
+            try {
+                handler.run();
+            } catch (RuntimeException e) {
+                log.warn("Cache invalidation handler failed after missed changes", e);
+            }
+        }
+    }
+
+    private void listen() {
+        boolean connectedBefore = false;
+        while (running) {
+            try (Connection listening = dataSource.getConnection()) {
+                listening.setAutoCommit(true);
+                try (Statement statement = listening.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                if (connectedBefore) {
+                    missedChanges();
+                } else {
+                    restarted();
+                }
+                connectedBefore = true;
+                PGConnection pgConnection = listening.unwrap(PGConnection.class);
+                try {
+                    while (running) {
+                        PGNotification[] notifications = pgConnection.getNotifications(pollMillis);
+                        if (notifications != null) {
+                            for (PGNotification notification : notifications) {
+                                received(notification.getParameter());
+                            }
+                        }
+                    }
+                } finally {
+                    // The connection goes back to the pool and must not keep collecting notifications there.
+                    try (Statement statement = listening.createStatement()) {
+                        statement.execute("UNLISTEN *");
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (running) {
+                    log.warn("Cache invalidation listener lost its connection, retrying in {} ms", reconnectMillis, e);
+                    sleepBeforeReconnect();
+                }
+            }
+        }
+    }
+
+    private void sleepBeforeReconnect() {
+        try {
+            Thread.sleep(reconnectMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        listener = new Thread(this::listen, "cache-invalidation-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        listener.interrupt();
+        try {
+            listener.join(pollMillis + 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        listener = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
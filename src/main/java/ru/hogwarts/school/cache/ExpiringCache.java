@@ -0,0 +1,166 @@
+package ru.hogwarts.school.cache;
+
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+import ru.hogwarts.school.model.CacheStats;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent map cache whose entries expire after a fixed time to live, so a missed eviction is only stale
+ * for that long. Counts hits, misses and evictions for {@link CacheStats}. Once it holds more than
+ * {@code maxEntries}, expired entries are purged, and if that is not enough the oldest tenth goes too.
+ * Evictions requested inside a transaction are held back until it commits, so no reader can cache the old
+ * row again between the eviction and the commit.
+ * <p>
+ * Read-through loads go through a {@link SingleFlight}, so a miss on a hot key runs one query however many
+ * callers hit it at once. A loaded value is only stored if nothing was evicted while it loaded, since it may
+ * have been read before the change that caused the eviction. That check needs the load in hand, so
+ * read-through methods are declared {@code @Cacheable(sync = true)}; a plain {@code put} stores what it is
+ * given.
+ */
+public class ExpiringCache extends AbstractValueAdaptingCache {
+    private final String name;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final Map<Object, Entry> store = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final AtomicLong generation = new AtomicLong();
+    private final SingleFlight singleFlight;
+
+    public ExpiringCache(String name, long ttlNanos, int maxEntries, long loadTimeoutNanos) {
+        super(false);
+        this.name = name;
+        this.ttlNanos = ttlNanos;
+        this.maxEntries = maxEntries;
+        this.singleFlight = new SingleFlight(loadTimeoutNanos);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return store;
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+        Entry entry = store.get(key);
+        if (entry != null && entry.isExpired(System.nanoTime())) {
+            store.remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        Object stored = lookup(key);
+        if (stored != null) {
+            return (T) fromStoreValue(stored);
+        }
+        try {
+            return (T) singleFlight.load(key, () -> {
+                long started = generation.get();
+                T value = valueLoader.call();
+                // Null results are not cached, so a missing row is looked up again next time.
+                if (value != null && started == generation.get()) {
+                    store(key, value);
+                }
+                return value;
+            });
+        } catch (Exception e) {
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        store(key, value);
+    }
+
+    private void store(Object key, Object value) {
+        if (store.size() >= maxEntries) {
+            makeRoom();
+        }
+        store.put(key, new Entry(toStoreValue(value), System.nanoTime() + ttlNanos));
+    }
+
+    @Override
+    public void evict(Object key) {
+        AfterCommit.run(() -> {
+            generation.incrementAndGet();
+            if (store.remove(key) != null) {
+                evictions.increment();
+            }
+        });
+    }
+
+    @Override
+    public void clear() {
+        AfterCommit.run(this::invalidate);
+    }
+
+    @Override
+    public boolean invalidate() {
+        generation.incrementAndGet();
+        int size = store.size();
+        evictions.add(size);
+        store.clear();
+        return size > 0;
+    }
+
+    public CacheStats getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long lookups = hitCount + missCount;
+        return new CacheStats(name, store.size(), hitCount, missCount,
+                lookups == 0 ? 0 : (double) hitCount / lookups, evictions.sum(),
+                singleFlight.getLoads(), singleFlight.getCollapsed(), singleFlight.getTimeouts());
+    }
+
+    /**
+     * Every entry lives equally long, so the one expiring first is the oldest. Dropping a tenth at a time
+     * lets one scan make room for many puts.
+     */
+    private void makeRoom() {
+        long now = System.nanoTime();
+        store.entrySet().removeIf(entry -> entry.getValue().isExpired(now));
+        int excess = store.size() - maxEntries + Math.max(1, maxEntries / 10);
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<Object, Entry>> oldest = store.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().expiresAt() - now))
+                .limit(excess)
+                .toList();
+        for (Map.Entry<Object, Entry> entry : oldest) {
+            if (store.remove(entry.getKey(), entry.getValue())) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private record Entry(Object value, long expiresAt) {
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ru.hogwarts.school.cache;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses concurrent loads of the same key into one: the first caller runs the loader and everyone who
+ * asks meanwhile waits for its result, or its failure, instead of running the same query. A caller waits at
+ * most {@code timeoutNanos}; after that the stuck load is forgotten and one of the waiting callers starts a
+ * fresh one, so the others keep collapsing onto it.
+ */
+final class SingleFlight {
+    private final long timeoutNanos;
+    private final Map<Object, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    SingleFlight(long timeoutNanos) {
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    Object load(Object key, Callable<?> loader) throws Exception {
+        while (true) {
+            CompletableFuture<Object> flight = new CompletableFuture<>();
+            CompletableFuture<Object> leader = inFlight.putIfAbsent(key, flight);
+            if (leader == null) {
+                return lead(key, flight, loader);
+            }
+            try {
+                Object value = leader.get(timeoutNanos, TimeUnit.NANOSECONDS);
+                collapsed.increment();
+                return value;
+            } catch (TimeoutException e) {
+                timeouts.increment();
+                inFlight.remove(key, leader);
+            } catch (ExecutionException e) {
+                collapsed.increment();
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw (Error) e.getCause();
+            }
+        }
+    }
+
+    private Object lead(Object key, CompletableFuture<Object> flight, Callable<?> loader) throws Exception {
+        loads.increment();
+        try {
+            Object value = loader.call();
+            flight.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    long getLoads() {
+        return loads.sum();
+    }
+
+    long getCollapsed() {
+        return collapsed.sum();
+    }
+
+    long getTimeouts() {
+        return timeouts.sum();
+    }
+}
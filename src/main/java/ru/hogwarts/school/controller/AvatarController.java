@@ -1,19 +1,30 @@
 package ru.hogwarts.school.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
-import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarImportReport;
+import ru.hogwarts.school.model.AvatarView;
+import ru.hogwarts.school.model.CursorPage;
+import ru.hogwarts.school.model.PreviewCacheStats;
+import ru.hogwarts.school.model.PreviewContent;
+import ru.hogwarts.school.model.PreviewPackStats;
+import ru.hogwarts.school.model.PreviewStatus;
+import ru.hogwarts.school.model.PreviewWorkerStats;
+import ru.hogwarts.school.service.AvatarImportService;
 import ru.hogwarts.school.service.AvatarService;
+import ru.hogwarts.school.storage.StoredContent;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
+import java.net.URI;
 import java.nio.file.Path;
 import java.util.List;
 
@@ -21,46 +32,144 @@ import java.util.List;
 @RequestMapping("avatar")
 public class AvatarController {
     public AvatarService avatarService;
+    private final AvatarImportService avatarImportService;
 
-    public AvatarController(AvatarService avatarService) {
+    public AvatarController(AvatarService avatarService, AvatarImportService avatarImportService) {
         this.avatarService = avatarService;
+        this.avatarImportService = avatarImportService;
     }
 
     @PostMapping(value = "/{id}/avatar", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<String> upLoadAvatar(@PathVariable Long id, @RequestParam MultipartFile avatar) throws IOException {
+    public ResponseEntity<String> upLoadAvatar(@PathVariable Long id, @RequestParam MultipartFile avatar,
+                                               @RequestParam(defaultValue = "false") boolean async) throws IOException {
+        if (async) {
+            avatarService.upLoadAvatarAsync(id, avatar);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/avatar/" + id + "/avatar/status"))
+                    .build();
+        }
         avatarService.upLoadAvatar(id, avatar);
         return ResponseEntity.ok().build();
     }
 
+    @GetMapping(value = "/{id}/avatar/status")
+    public ResponseEntity<PreviewStatus> getPreviewStatus(@PathVariable Long id) {
+        PreviewStatus status = avatarService.getPreviewStatus(id);
+        if (status == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(status);
+    }
+
+    @GetMapping(value = "/preview/stats")
+    public PreviewWorkerStats getPreviewWorkerStats() {
+        return avatarService.getPreviewWorkerStats();
+    }
+
+    @GetMapping(value = "/preview/cache/stats")
+    public PreviewCacheStats getPreviewCacheStats() {
+        return avatarService.getPreviewCacheStats();
+    }
+
+    @GetMapping(value = "/preview/pack/stats")
+    public PreviewPackStats getPreviewPackStats() throws IOException {
+        return avatarService.getPreviewPackStats();
+    }
+
     @GetMapping(value = "/{id}/avatar/preview")
-    public ResponseEntity<byte[]> downloadAvatar(@PathVariable Long id) {
-        Avatar avatar = avatarService.findAvatar(id);
+    public ResponseEntity<byte[]> downloadAvatar(@PathVariable Long id,
+                                                 @RequestParam(value = "w", required = false) Integer width,
+                                                 @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                 WebRequest webRequest) throws IOException {
+        PreviewContent preview = avatarService.findPreview(id, width, acceptedTypes(accept));
+        if (preview == null) {
+            if (avatarService.getPreviewStatus(id) == PreviewStatus.PENDING) {
+                return ResponseEntity.accepted()
+                        .location(URI.create("/avatar/" + id + "/avatar/status"))
+                        .build();
+            }
+            return ResponseEntity.notFound().build();
+        }
+        if (webRequest.checkNotModified(preview.eTag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(preview.eTag())
+                    .cacheControl(CacheControl.noCache().cachePublic())
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .build();
+        }
         HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.parseMediaType(avatar.getMediaType()));
-        headers.setContentLength(avatar.getData().length);
+        headers.setContentType(MediaType.parseMediaType(preview.mediaType()));
+        headers.setContentLength(preview.data().length);
+        headers.setETag(preview.eTag());
+        headers.setCacheControl(CacheControl.noCache().cachePublic());
+        headers.setVary(List.of(HttpHeaders.ACCEPT));
         return ResponseEntity
                 .status(HttpStatus.OK)
                 .headers(headers)
-                .body(avatar.getData());
+                .body(preview.data());
+    }
+
+    /**
+     * An Accept header that does not parse states no usable preference, so the stored format is served.
+     */
+    private static List<MediaType> acceptedTypes(String accept) {
+        try {
+            return MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return List.of();
+        }
     }
 
     @GetMapping(value = "/{id}/avatar")
-    public void downLoadAvatar(@PathVariable Long id, HttpServletResponse response) throws IOException {
-        Avatar avatar = avatarService.findAvatar(id);
-        Path path = Path.of(avatar.getFilePath());
-        try (InputStream is = Files.newInputStream(path);
-             OutputStream os = response.getOutputStream()) {
-            response.setStatus(200);
-            response.setContentType(avatar.getMediaType());
-            response.setContentLength((int) avatar.getFileSize());
-            is.transferTo(os);
+    public void downLoadAvatar(@PathVariable Long id, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+        StoredContent original = avatarService.findOriginal(id);
+        if (original == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        RangeFileSender.send(original, request, response);
+    }
+
+    @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<AvatarImportReport> importArchive(@RequestParam MultipartFile archive) throws IOException {
+        return acceptedImport(avatarImportService.startImport(archive));
+    }
+
+    @PostMapping(value = "/import", params = "directory")
+    public ResponseEntity<AvatarImportReport> importDirectory(@RequestParam String directory) {
+        Path path = avatarImportService.resolveImportDirectory(directory);
+        if (path == null) {
+            return ResponseEntity.badRequest().build();
         }
+        return acceptedImport(avatarImportService.startImport(path));
+    }
+
+    @GetMapping(value = "/import/{jobId}")
+    public ResponseEntity<AvatarImportReport> getImportReport(@PathVariable String jobId) {
+        AvatarImportReport report = avatarImportService.getReport(jobId);
+        if (report == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(report);
+    }
+
+    private ResponseEntity<AvatarImportReport> acceptedImport(AvatarImportReport report) {
+        return ResponseEntity.accepted()
+                .location(URI.create("/avatar/import/" + report.id()))
+                .body(report);
     }
 
     @GetMapping()
-    public List<Avatar> getAllAvatars(
-            @RequestParam("page") Integer pageNumber,
-            @RequestParam("size") Integer pageSize) {
-        return avatarService.findAllAvatars(pageNumber, pageSize);
+    public ResponseEntity<List<AvatarView>> getAllAvatars(@RequestParam(required = false) String sort,
+                                                          @RequestParam(required = false) String cursor,
+                                                          @RequestParam(required = false) Integer limit) {
+        CursorPage<AvatarView> page;
+        try {
+            page = avatarService.findAllAvatars(sort, cursor, limit);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return CursorResponses.ok(page);
     }
 }
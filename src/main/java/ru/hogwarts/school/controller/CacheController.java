@@ -0,0 +1,24 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.hogwarts.school.cache.CacheConfig;
+import ru.hogwarts.school.model.CacheStats;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+    private final CacheConfig.ExpiringCacheManager cacheManager;
+
+    public CacheController(CacheConfig.ExpiringCacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    @GetMapping("/stats")
+    public List<CacheStats> getStats() {
+        return cacheManager.getStats();
+    }
+}
@@ -0,0 +1,38 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import ru.hogwarts.school.model.CursorPage;
+
+import java.util.List;
+
+/**
+ * Lists stay plain JSON arrays; the cursor of the next page travels in a {@code Link: <...>; rel="next"} header.
+ */
+final class CursorResponses {
+
+    private CursorResponses() {
+    }
+
+    static <T> ResponseEntity<List<T>> ok(CursorPage<T> page) {
+        return ok(page, null);
+    }
+
+    static <T> ResponseEntity<List<T>> ok(CursorPage<T> page, String eTag) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (eTag != null) {
+            response.eTag(eTag);
+        }
+        if (page.nextCursor() != null) {
+            // The cursor already carries the sort order, so the parameter is dropped from the next link.
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("cursor", page.nextCursor())
+                    .replaceQueryParam("sort")
+                    .build()
+                    .toUriString();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(page.items());
+    }
+}
@@ -0,0 +1,80 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import ru.hogwarts.school.model.CollectionVersion;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Entity tags built from the {@code @Version} columns. A student's body embeds its faculty, so its tag
+ * carries the faculty's version too. Lists are tagged by the versions of the tables they are read from,
+ * which are known before a single row is fetched. Lists answered from an in-memory index are tagged by the
+ * index's own version instead: it follows a commit a little later than the table counter does, and a tag
+ * newer than the body would let a client keep the old body on a 304.
+ * <p>
+ * An {@code If-Match} on a write is checked against the row's own version only: a student update does not
+ * touch the faculty, so a faculty edit in the meantime is no conflict.
+ */
+final class ETags {
+    private static final Pattern STUDENT = Pattern.compile("\"s(\\d+)(-f\\d+)?\"");
+    private static final Pattern FACULTY = Pattern.compile("\"f(\\d+)\"");
+    // Matches no row, so a tag this application never issued fails the precondition.
+    private static final long NO_VERSION = -1;
+
+    private ETags() {
+    }
+
+    static String of(Student student) {
+        Faculty faculty = student.getFaculty();
+        return "\"s" + student.getVersion() + (faculty == null ? "" : "-f" + faculty.getVersion()) + "\"";
+    }
+
+    static String of(Faculty faculty) {
+        return "\"f" + faculty.getVersion() + "\"";
+    }
+
+    static String of(CollectionVersion... versions) {
+        StringBuilder tag = new StringBuilder("\"");
+        for (CollectionVersion version : versions) {
+            if (tag.length() > 1) {
+                tag.append('-');
+            }
+            tag.append(version.version());
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * @return the student version an {@code If-Match} header requires, or null if it requires none
+     */
+    static Long studentVersion(String ifMatch) {
+        return versionOf(ifMatch, STUDENT);
+    }
+
+    /**
+     * @return the faculty version an {@code If-Match} header requires, or null if it requires none
+     */
+    static Long facultyVersion(String ifMatch) {
+        return versionOf(ifMatch, FACULTY);
+    }
+
+    private static Long versionOf(String ifMatch, Pattern pattern) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        Matcher matcher = pattern.matcher(ifMatch.trim());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : NO_VERSION;
+    }
+
+    static <T> ResponseEntity<T> notModified(String eTag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+    }
+
+    static <T> ResponseEntity<T> preconditionFailed() {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+    }
+}
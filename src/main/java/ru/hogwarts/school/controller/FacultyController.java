@@ -1,13 +1,22 @@
 package ru.hogwarts.school.controller;
 
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import ru.hogwarts.school.model.CollectionVersion;
+import ru.hogwarts.school.model.CursorPage;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.FacultyPatch;
+import ru.hogwarts.school.model.FacultyStudentStats;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.service.FacultyService;
 import ru.hogwarts.school.service.StudentService;
 
 import java.util.Collection;
+import java.util.List;
 
 @RestController
 @RequestMapping("/faculty")
@@ -21,12 +30,16 @@ public class FacultyController {
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<Faculty> findFaculty(@PathVariable Long id) {
+    public ResponseEntity<Faculty> findFaculty(@PathVariable Long id, WebRequest webRequest) {
         Faculty faculty = facultyService.findFaculty(id);
         if (faculty == null) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(faculty);
+        String eTag = ETags.of(faculty);
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag);
+        }
+        return ResponseEntity.ok().eTag(eTag).body(faculty);
     }
 
     @PostMapping
@@ -35,12 +48,33 @@ public class FacultyController {
     }
 
     @PutMapping
-    public ResponseEntity<Faculty> editFaculty(@RequestBody Faculty faculty) {
-        Faculty editFaculty = facultyService.editFaculty(faculty);
+    public ResponseEntity<Faculty> editFaculty(@RequestBody Faculty faculty,
+                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Faculty editFaculty;
+        try {
+            editFaculty = facultyService.editFaculty(faculty, ETags.facultyVersion(ifMatch));
+        } catch (OptimisticLockingFailureException e) {
+            return ETags.preconditionFailed();
+        }
         if (editFaculty == null) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(editFaculty);
+        return ResponseEntity.ok().eTag(ETags.of(editFaculty)).body(editFaculty);
+    }
+
+    @PatchMapping("/{id}")
+    public ResponseEntity<Faculty> patchFaculty(@PathVariable Long id, @RequestBody FacultyPatch patch,
+                                                @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Faculty patched;
+        try {
+            patched = facultyService.patchFaculty(id, ETags.facultyVersion(ifMatch), patch);
+        } catch (OptimisticLockingFailureException e) {
+            return ETags.preconditionFailed();
+        }
+        if (patched == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().eTag(ETags.of(patched)).body(patched);
     }
 
     @DeleteMapping("/{id}")
@@ -48,19 +82,88 @@ public class FacultyController {
         facultyService.deleteFaculty(id);
     }
 
+    @PostMapping("/batch")
+    public List<Faculty> createFaculties(@RequestBody List<Faculty> faculties) {
+        return facultyService.createFaculties(faculties);
+    }
+
+    @PutMapping("/batch")
+    public ResponseEntity<List<Faculty>> editFaculties(@RequestBody List<Faculty> faculties) {
+        List<Faculty> edited = facultyService.editFaculties(faculties);
+        if (edited == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(edited);
+    }
+
+    @DeleteMapping("/batch")
+    public void deleteFaculties(@RequestBody List<Long> ids) {
+        facultyService.deleteFaculties(ids);
+    }
+
     @GetMapping
-    public Collection<Faculty> findAllFaculties() {
-        return facultyService.findAllFaculties();
+    public ResponseEntity<List<Faculty>> findAllFaculties(@RequestParam(required = false) String sort,
+                                                          @RequestParam(required = false) String cursor,
+                                                          @RequestParam(required = false) Integer limit,
+                                                          WebRequest webRequest) {
+        String eTag = ETags.of(facultyService.getFacultiesVersion());
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag);
+        }
+        CursorPage<Faculty> page;
+        try {
+            page = facultyService.findAllFaculties(sort, cursor, limit);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return CursorResponses.ok(page, eTag);
     }
 
     @GetMapping("/")
-    public Collection<Faculty> getByFacultyOrColor(@RequestParam String search) {
-        return facultyService.findByFacultyOrColor(search);
+    public ResponseEntity<Collection<Faculty>> getByFacultyOrColor(@RequestParam String search, WebRequest webRequest) {
+        String eTag = ETags.of(facultyService.getSearchIndexVersion());
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag);
+        }
+        return ResponseEntity.ok().eTag(eTag).body(facultyService.findByFacultyOrColor(search));
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<List<Faculty>> searchFaculties(@RequestParam String q,
+                                                         @RequestParam(required = false) Integer limit,
+                                                         WebRequest webRequest) {
+        String eTag = ETags.of(facultyService.getSearchIndexVersion());
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag);
+        }
+        try {
+            return ResponseEntity.ok().eTag(eTag).body(facultyService.searchFaculties(q, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/stats")
+    public List<FacultyStudentStats> getFacultyStats() {
+        return studentService.getFacultyStats();
     }
 
     @GetMapping("/{id}/students")
-    public Collection<Student> getStudentsByFaculty(@PathVariable Long id) {
-        Faculty faculty = facultyService.findFaculty(id);
-        return studentService.findStudentsByFaculty(faculty);
+    public ResponseEntity<Collection<Student>> getStudentsByFaculty(@PathVariable Long id, WebRequest webRequest) {
+        CollectionVersion readModel = studentService.getReadModelVersion();
+        String eTag = readModel != null ? ETags.of(readModel)
+                : ETags.of(studentService.getStudentsVersion(), facultyService.getFacultiesVersion());
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag);
+        }
+        return ResponseEntity.ok().eTag(eTag).body(studentService.findStudentsByFaculty(id));
+    }
+
+    /**
+     * A write that breaks a column constraint, such as a missing name, is a bad request rather than a server error.
+     */
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    public ResponseEntity<Void> constraintViolated() {
+        return ResponseEntity.badRequest().build();
     }
-}
\ No newline at end of file
+}
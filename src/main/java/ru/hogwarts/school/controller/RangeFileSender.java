@@ -0,0 +1,127 @@
+package ru.hogwarts.school.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.web.context.request.ServletWebRequest;
+import ru.hogwarts.school.storage.StoredBlob;
+import ru.hogwarts.school.storage.StoredContent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+final class RangeFileSender {
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private RangeFileSender() {
+    }
+
+    static void send(StoredContent content, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        StoredBlob blob = content.blob();
+        long size = blob.size();
+        long lastModified = blob.lastModified();
+        if (new ServletWebRequest(request, response).checkNotModified(lastModified)) {
+            return;
+        }
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setContentType(content.mediaType());
+
+        long start = 0;
+        long end = size - 1;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && size > 0 && rangeApplies(request, lastModified)) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+                // Multi-range responses are optional, so those requests simply get the whole file.
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(size);
+                    end = ranges.get(0).getRangeEnd(size);
+                    if (start >= size || end < start) {
+                        throw new IllegalArgumentException("Unsatisfiable range " + rangeHeader);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (ranges.size() == 1) {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+        long length = end - start + 1;
+        response.setContentLengthLong(length);
+        if ("HEAD".equals(request.getMethod()) || length <= 0) {
+            return;
+        }
+
+        if (!blob.isFileBacked()) {
+            try (InputStream is = content.open()) {
+                is.skipNBytes(start);
+                copy(is, response, length);
+            }
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Tomcat streams the region with sendfile(2) once the handler returns, bypassing the heap.
+            request.setAttribute(SENDFILE_FILENAME, blob.file().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(blob.file(), READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long limit = end + 1;
+            while (position < limit) {
+                long n = channel.transferTo(position, limit - position, out);
+                if (n <= 0) {
+                    break;
+                }
+                position += n;
+            }
+        }
+    }
+
+    private static void copy(InputStream is, HttpServletResponse response, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                break;
+            }
+            response.getOutputStream().write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    private static boolean rangeApplies(HttpServletRequest request, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        // Only Last-Modified validators are issued for originals, so any entity tag is a mismatch.
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return false;
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -1,21 +1,42 @@
 package ru.hogwarts.school.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.hogwarts.school.model.CollectionVersion;
+import ru.hogwarts.school.model.CursorPage;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentPatch;
+import ru.hogwarts.school.service.FacultyService;
 import ru.hogwarts.school.service.StudentService;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 @RestController
 @RequestMapping("/student")
 public class StudentController {
     private final StudentService studentService;
+    private final FacultyService facultyService;
+    private final ObjectMapper objectMapper;
 
-    public StudentController(StudentService studentService) {
+    public StudentController(StudentService studentService, FacultyService facultyService, ObjectMapper objectMapper) {
         this.studentService = studentService;
+        this.facultyService = facultyService;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping
@@ -24,21 +45,50 @@ public class StudentController {
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<Student> findStudent(@PathVariable Long id) {
+    public ResponseEntity<Student> findStudent(@PathVariable Long id, WebRequest webRequest) {
         Student student = studentService.findStudent(id);
         if (student == null) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(student);
+        String eTag = ETags.of(student);
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag);
+        }
+        return ResponseEntity.ok().eTag(eTag).body(student);
     }
 
     @PutMapping
-    public ResponseEntity<Student> editStudent(@RequestBody Student student) {
-        Student editStudent = studentService.editStudent(student);
+    public ResponseEntity<Student> editStudent(@RequestBody Student student,
+                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Student editStudent;
+        try {
+            editStudent = studentService.editStudent(student, ETags.studentVersion(ifMatch));
+        } catch (OptimisticLockingFailureException e) {
+            return ETags.preconditionFailed();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
         if (editStudent == null) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(editStudent);
+        return ResponseEntity.ok().eTag(ETags.of(editStudent)).body(editStudent);
+    }
+
+    @PatchMapping("/{id}")
+    public ResponseEntity<Student> patchStudent(@PathVariable Long id, @RequestBody StudentPatch patch,
+                                                @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Student patched;
+        try {
+            patched = studentService.patchStudent(id, ETags.studentVersion(ifMatch), patch);
+        } catch (OptimisticLockingFailureException e) {
+            return ETags.preconditionFailed();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (patched == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().eTag(ETags.of(patched)).body(patched);
     }
 
     @DeleteMapping("/{id}")
@@ -46,27 +96,121 @@ public class StudentController {
         studentService.deleteStudent(id);
     }
 
+    @PostMapping("/batch")
+    public List<Student> createStudents(@RequestBody List<Student> students) {
+        return studentService.createStudents(students);
+    }
+
+    @PutMapping("/batch")
+    public ResponseEntity<List<Student>> editStudents(@RequestBody List<Student> students) {
+        List<Student> edited = studentService.editStudents(students);
+        if (edited == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(edited);
+    }
+
+    @DeleteMapping("/batch")
+    public void deleteStudents(@RequestBody List<Long> ids) {
+        studentService.deleteStudents(ids);
+    }
+
     @GetMapping
-    public Collection<Student> findAllStudent() {
-        return studentService.findAllStudent();
+    public ResponseEntity<List<Student>> findAllStudent(@RequestParam(required = false) String sort,
+                                                        @RequestParam(required = false) String cursor,
+                                                        @RequestParam(required = false) Integer limit,
+                                                        WebRequest webRequest) {
+        String eTag = listETag();
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag);
+        }
+        CursorPage<Student> page;
+        try {
+            page = studentService.findAllStudent(sort, cursor, limit);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return CursorResponses.ok(page, eTag);
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<List<Student>> searchStudents(@RequestParam String q,
+                                                        @RequestParam(required = false) Integer limit,
+                                                        WebRequest webRequest) {
+        String eTag = ETags.of(studentService.getNameIndexVersion(), facultyService.getFacultiesVersion());
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag);
+        }
+        try {
+            return ResponseEntity.ok().eTag(eTag).body(studentService.searchStudents(q, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportStudents() {
+        ObjectWriter writer = objectMapper.writerFor(Student.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = out -> {
+            try (SequenceWriter lines = writer.withRootValueSeparator("\n").writeValues(out)) {
+                studentService.forEachStudent(student -> {
+                    try {
+                        lines.write(student);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
     }
 
     @GetMapping("/")
     public ResponseEntity<Collection<Student>> getStudentsByAgeBetween(
-            @RequestParam int minAge, @RequestParam int maxAge) {
+            @RequestParam int minAge, @RequestParam int maxAge, WebRequest webRequest) {
         if (minAge > maxAge) {
             return ResponseEntity.ok(Collections.emptyList());
         }
-        return ResponseEntity.ok(studentService.findStudentAgeBetween(minAge, maxAge));
+        String eTag = readModelETag();
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag);
+        }
+        return ResponseEntity.ok().eTag(eTag).body(studentService.findStudentAgeBetween(minAge, maxAge));
     }
 
     @GetMapping("/{id}/faculty")
-    public ResponseEntity<Faculty> getFacultyByStudent(@PathVariable Long id) {
+    public ResponseEntity<Faculty> getFacultyByStudent(@PathVariable Long id, WebRequest webRequest) {
         Student student = studentService.findStudent(id);
         if (student == null) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(student.getFaculty());
+        Faculty faculty = student.getFaculty();
+        if (faculty == null) {
+            return ResponseEntity.ok().build();
+        }
+        String eTag = ETags.of(faculty);
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag);
+        }
+        return ResponseEntity.ok().eTag(eTag).body(faculty);
+    }
+
+    /**
+     * Student lists embed the faculties, so their tag changes with either table.
+     */
+    private String listETag() {
+        return ETags.of(studentService.getStudentsVersion(), facultyService.getFacultiesVersion());
+    }
+
+    /**
+     * Lists the read model answers are tagged by its snapshot, which holds the faculties too.
+     */
+    private String readModelETag() {
+        CollectionVersion version = studentService.getReadModelVersion();
+        return version == null ? listETag() : ETags.of(version);
     }
 
     @GetMapping("/count")
@@ -79,8 +223,30 @@ public class StudentController {
         return studentService.countAvgAllStudents();
     }
 
+    @GetMapping("/age/percentile")
+    public ResponseEntity<Integer> getAgePercentile(@RequestParam double p) {
+        Integer age;
+        try {
+            age = studentService.getAgePercentile(p);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (age == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(age);
+    }
+
     @GetMapping("/last")
     public Collection<Student> getLastStudent() {
         return studentService.getLastStudent();
     }
-}
\ No newline at end of file
+
+    /**
+     * A write that breaks a column constraint, such as a missing name, is a bad request rather than a server error.
+     */
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    public ResponseEntity<Void> constraintViolated() {
+        return ResponseEntity.badRequest().build();
+    }
+}
@@ -0,0 +1,7 @@
+package ru.hogwarts.school.model;
+
+/**
+ * The number of students of one age in one faculty; {@code facultyId} is null for students without one.
+ */
+public record AgeGroup(int age, Long facultyId, long students) {
+}
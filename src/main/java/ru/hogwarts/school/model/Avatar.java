@@ -2,36 +2,39 @@ package ru.hogwarts.school.model;
 
 import jakarta.persistence.*;
 
-import java.util.Arrays;
 import java.util.Objects;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "avatar_content_hash_idx", columnList = "contentHash"),
+        @Index(name = "avatar_file_size_id_idx", columnList = "fileSize, id")
+})
 public class Avatar {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "avatar_seq")
+    @SequenceGenerator(name = "avatar_seq", sequenceName = "avatar_seq", allocationSize = 1000)
     private Long id;
     private String filePath;
+    private String contentHash;
     private long fileSize;
     private String mediaType;
 
-    //    @Lob
-//    @Column(columnDefinition = "BYTEA")
-    private byte[] data;
+    @Enumerated(EnumType.STRING)
+    private PreviewStatus previewStatus;
 
-    @OneToOne
+    @OneToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "student_id")
     private Student student;
 
     public Avatar() {
     }
 
-    public Avatar(Long id, String filePath, long fileSize, String mediaType, byte[] data, Student student) {
+    public Avatar(Long id, String filePath, long fileSize, String mediaType, Student student) {
         this.id = id;
         this.filePath = filePath;
         this.fileSize = fileSize;
         this.mediaType = mediaType;
-        this.data = data;
         this.student = student;
     }
 
@@ -51,6 +54,14 @@ public class Avatar {
         this.filePath = filePath;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
     public long getFileSize() {
         return fileSize;
     }
@@ -67,12 +78,12 @@ public class Avatar {
         this.mediaType = mediaType;
     }
 
-    public byte[] getData() {
-        return data;
+    public PreviewStatus getPreviewStatus() {
+        return previewStatus;
     }
 
-    public void setData(byte[] data) {
-        this.data = data;
+    public void setPreviewStatus(PreviewStatus previewStatus) {
+        this.previewStatus = previewStatus;
     }
 
     public Student getStudent() {
@@ -87,11 +98,11 @@ public class Avatar {
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
         Avatar avatar = (Avatar) o;
-        return fileSize == avatar.fileSize && Objects.equals(id, avatar.id) && Objects.equals(filePath, avatar.filePath) && Objects.equals(mediaType, avatar.mediaType) && Objects.deepEquals(data, avatar.data) && Objects.equals(student, avatar.student);
+        return fileSize == avatar.fileSize && Objects.equals(id, avatar.id) && Objects.equals(filePath, avatar.filePath) && Objects.equals(contentHash, avatar.contentHash) && Objects.equals(mediaType, avatar.mediaType);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, filePath, fileSize, mediaType, Arrays.hashCode(data), student);
+        return Objects.hash(id, filePath, contentHash, fileSize, mediaType);
     }
 }
@@ -0,0 +1,71 @@
+package ru.hogwarts.school.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+@Entity
+public class AvatarBlob {
+
+    @Id
+    private String storageKey;
+    private long size;
+    private long lastModified;
+    private byte[] data;
+
+    public AvatarBlob() {
+    }
+
+    public AvatarBlob(String storageKey, long size, long lastModified, byte[] data) {
+        this.storageKey = storageKey;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.data = data;
+    }
+
+    public String getStorageKey() {
+        return storageKey;
+    }
+
+    public void setStorageKey(String storageKey) {
+        this.storageKey = storageKey;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        AvatarBlob that = (AvatarBlob) o;
+        return size == that.size && lastModified == that.lastModified && Objects.equals(storageKey, that.storageKey) && Objects.deepEquals(data, that.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(storageKey, size, lastModified, Arrays.hashCode(data));
+    }
+}
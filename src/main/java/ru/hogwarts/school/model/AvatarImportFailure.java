@@ -0,0 +1,4 @@
+package ru.hogwarts.school.model;
+
+public record AvatarImportFailure(String fileName, String reason) {
+}
@@ -0,0 +1,23 @@
+package ru.hogwarts.school.model;
+
+import java.util.List;
+
+public record AvatarImportReport(
+        String id,
+        Status status,
+        String source,
+        int total,
+        int processed,
+        int imported,
+        int failed,
+        List<AvatarImportFailure> failures,
+        long elapsedMillis,
+        double filesPerSecond) {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+}
@@ -0,0 +1,82 @@
+package ru.hogwarts.school.model;
+
+import jakarta.persistence.*;
+
+import java.util.Objects;
+
+@Entity
+@Table(indexes = @Index(name = "avatar_preview_content_hash_width_idx", columnList = "contentHash, width", unique = true))
+public class AvatarPreview {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "avatar_preview_seq")
+    @SequenceGenerator(name = "avatar_preview_seq", sequenceName = "avatar_preview_seq", allocationSize = 1000)
+    private Long id;
+    private String contentHash;
+    private int width;
+    private String mediaType;
+    private long size;
+
+    public AvatarPreview() {
+    }
+
+    public AvatarPreview(Long id, String contentHash, int width, String mediaType, long size) {
+        this.id = id;
+        this.contentHash = contentHash;
+        this.width = width;
+        this.mediaType = mediaType;
+        this.size = size;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public void setMediaType(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        AvatarPreview that = (AvatarPreview) o;
+        return width == that.width && size == that.size && Objects.equals(id, that.id) && Objects.equals(contentHash, that.contentHash) && Objects.equals(mediaType, that.mediaType);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, contentHash, width, mediaType, size);
+    }
+}
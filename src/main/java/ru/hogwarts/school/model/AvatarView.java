@@ -0,0 +1,8 @@
+package ru.hogwarts.school.model;
+
+public record AvatarView(Long id, long fileSize, String mediaType, String previewUrl) {
+
+    public AvatarView(Long id, Long studentId, long fileSize, String mediaType) {
+        this(id, fileSize, mediaType, "/avatar/" + studentId + "/avatar/preview");
+    }
+}
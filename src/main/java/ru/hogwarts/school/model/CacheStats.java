@@ -0,0 +1,13 @@
+package ru.hogwarts.school.model;
+
+public record CacheStats(
+        String name,
+        int size,
+        long hits,
+        long misses,
+        double hitRatio,
+        long evictions,
+        long loads,
+        long collapsedLoads,
+        long loadTimeouts) {
+}
@@ -0,0 +1,27 @@
+package ru.hogwarts.school.model;
+
+import jakarta.persistence.*;
+
+/**
+ * The number of committed writes to a whole table, one row per table.
+ */
+@Entity
+public class CollectionCounter {
+    public static final String STUDENTS = "student";
+    public static final String FACULTIES = "faculty";
+
+    @Id
+    private String name;
+    private long version;
+
+    public CollectionCounter() {
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,8 @@
+package ru.hogwarts.school.model;
+
+/**
+ * The version of a whole table. Every write bumps its counter in the same transaction, so any committed
+ * change alters it, and reading it is one primary-key lookup however large the table grows.
+ */
+public record CollectionVersion(long version) {
+}
@@ -1,19 +1,35 @@
 package ru.hogwarts.school.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.util.List;
 import java.util.Objects;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "faculty_name_id_idx", columnList = "name, id"),
+        @Index(name = "faculty_color_id_idx", columnList = "color, id")
+})
+@JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 public class Faculty {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "faculty_seq")
+    @SequenceGenerator(name = "faculty_seq", sequenceName = "faculty_seq", allocationSize = 100)
     private Long id;
+    @Column(nullable = false)
     private String name;
+    @Column(nullable = false)
     private String color;
 
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    @JsonIgnore
+    private long version;
+
     @OneToMany(mappedBy = "faculty", fetch = FetchType.LAZY)
     @JsonIgnore
     private List<Student> students;
@@ -51,6 +67,14 @@ public class Faculty {
         this.color = color;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public List<Student> getStudents() {
         return students;
     }
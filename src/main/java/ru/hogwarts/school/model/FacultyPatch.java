@@ -0,0 +1,7 @@
+package ru.hogwarts.school.model;
+
+/**
+ * Body of a partial faculty update; a field left out or null keeps its current value.
+ */
+public record FacultyPatch(String name, String color) {
+}
@@ -0,0 +1,9 @@
+package ru.hogwarts.school.model;
+
+public record FacultyStudentStats(
+        Long facultyId,
+        String name,
+        String color,
+        long students,
+        double averageAge) {
+}
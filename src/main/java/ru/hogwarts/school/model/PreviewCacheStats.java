@@ -0,0 +1,10 @@
+package ru.hogwarts.school.model;
+
+public record PreviewCacheStats(
+        int entries,
+        long bytes,
+        long maxBytes,
+        long hits,
+        long misses,
+        long evictions) {
+}
@@ -0,0 +1,4 @@
+package ru.hogwarts.school.model;
+
+public record PreviewContent(byte[] data, String mediaType, String eTag) {
+}
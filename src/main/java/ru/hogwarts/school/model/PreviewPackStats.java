@@ -0,0 +1,10 @@
+package ru.hogwarts.school.model;
+
+public record PreviewPackStats(
+        int students,
+        int entries,
+        long fileBytes,
+        long liveBytes,
+        long garbageBytes,
+        long compactions) {
+}
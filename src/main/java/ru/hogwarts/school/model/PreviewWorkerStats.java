@@ -0,0 +1,14 @@
+package ru.hogwarts.school.model;
+
+public record PreviewWorkerStats(
+        int queueDepth,
+        int queueCapacity,
+        int activeWorkers,
+        long completed,
+        long failed,
+        long ranOnCaller,
+        long rejected,
+        double avgQueueWaitMillis,
+        double avgProcessingMillis,
+        double maxProcessingMillis) {
+}
@@ -2,24 +2,33 @@ package ru.hogwarts.school.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.util.Objects;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "student_name_id_idx", columnList = "name, id"),
+        @Index(name = "student_age_id_idx", columnList = "age, id")
+})
 public class Student {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "student_seq")
+    @SequenceGenerator(name = "student_seq", sequenceName = "student_seq", allocationSize = 1000)
     private Long id;
+    @Column(nullable = false)
     private String name;
     private int age;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "faculty_id")
     private Faculty faculty;
 
-    @OneToOne(mappedBy = "student", cascade = CascadeType.ALL, orphanRemoval = true)
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
     @JsonIgnore
-    private Avatar avatar;
+    private long version;
 
     public Student() {
     }
@@ -37,14 +46,6 @@ public class Student {
         this.faculty = faculty;
     }
 
-    public Student(Long id, String name, int age, Faculty faculty, Avatar avatar) {
-        this.id = id;
-        this.name = name;
-        this.age = age;
-        this.faculty = faculty;
-        this.avatar = avatar;
-    }
-
     public Long getId() {
         return id;
     }
@@ -77,6 +78,14 @@ public class Student {
         this.faculty = faculty;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
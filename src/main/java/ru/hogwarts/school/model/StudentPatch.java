@@ -0,0 +1,7 @@
+package ru.hogwarts.school.model;
+
+/**
+ * Body of a partial student update; a field left out or null keeps its current value.
+ */
+public record StudentPatch(String name, Integer age, Faculty faculty) {
+}
@@ -0,0 +1,8 @@
+package ru.hogwarts.school.model;
+
+/**
+ * The fields of a student the statistics follow, with the row version they were read at; {@code facultyId}
+ * is null for a student without one.
+ */
+public record StudentState(String name, int age, Long facultyId, long version) {
+}
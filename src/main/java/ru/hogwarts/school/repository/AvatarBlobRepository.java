@@ -0,0 +1,24 @@
+package ru.hogwarts.school.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.hogwarts.school.model.AvatarBlob;
+
+import java.util.List;
+
+@Repository
+public interface AvatarBlobRepository extends JpaRepository<AvatarBlob, String> {
+
+    @Query("select b.size, b.lastModified from AvatarBlob b where b.storageKey = :storageKey")
+    List<Object[]> findSizeAndLastModified(@Param("storageKey") String storageKey);
+
+    @Query("select b.data from AvatarBlob b where b.storageKey = :storageKey")
+    List<byte[]> findData(@Param("storageKey") String storageKey);
+
+    @Modifying
+    @Query("delete from AvatarBlob b where b.storageKey = :storageKey")
+    void deleteByStorageKey(@Param("storageKey") String storageKey);
+}
@@ -0,0 +1,42 @@
+package ru.hogwarts.school.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.hogwarts.school.model.AvatarPreview;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface AvatarPreviewRepository extends JpaRepository<AvatarPreview, Long> {
+    boolean existsByContentHash(String contentHash);
+
+    @Query("select distinct p.contentHash from AvatarPreview p where p.contentHash in :contentHashes")
+    List<String> findContentHashesIn(@Param("contentHashes") Collection<String> contentHashes);
+
+    @Query("select p from AvatarPreview p, Avatar a " +
+            "where a.student.id = :studentId and p.contentHash = a.contentHash and p.width = :width")
+    Optional<AvatarPreview> findByStudentIdAndWidth(@Param("studentId") Long studentId, @Param("width") int width);
+
+    @Query("select p.width from AvatarPreview p where p.contentHash = :contentHash")
+    List<Integer> findWidthsByContentHash(@Param("contentHash") String contentHash);
+
+    /**
+     * Inserts the preview unless that content already has one of this width. The id is drawn from the sequence
+     * directly, which skips the rest of its pooled block but never hands out an id Hibernate may use.
+     */
+    @Modifying
+    @Query(value = "insert into avatar_preview (id, content_hash, width, media_type, size) "
+            + "values (nextval('avatar_preview_seq'), :contentHash, :width, :mediaType, :size) "
+            + "on conflict (content_hash, width) do nothing", nativeQuery = true)
+    int insertIfAbsent(@Param("contentHash") String contentHash, @Param("width") int width,
+                       @Param("mediaType") String mediaType, @Param("size") long size);
+
+    @Modifying
+    @Query("delete from AvatarPreview p where p.contentHash = :contentHash")
+    void deleteByContentHash(@Param("contentHash") String contentHash);
+}
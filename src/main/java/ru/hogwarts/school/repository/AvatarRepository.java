@@ -1,12 +1,41 @@
 package ru.hogwarts.school.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.PreviewStatus;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface AvatarRepository extends JpaRepository<Avatar, Long> {
+public interface AvatarRepository extends JpaRepository<Avatar, Long>, JpaSpecificationExecutor<Avatar> {
     Optional<Avatar> findByStudentId(Long studentId);
+
+    List<Avatar> findByStudentIdIn(Collection<Long> studentIds);
+
+    long countByContentHash(String contentHash);
+
+    /**
+     * Returns the ids of avatars saved before content-addressed storage, which have no content hash.
+     */
+    @Query("select a.id from Avatar a where a.contentHash is null and a.id > :after order by a.id")
+    List<Long> findLegacyIds(@Param("after") long after, Pageable page);
+
+    /**
+     * Moves the avatar from {@code PENDING} to the given status, provided it still holds the given content.
+     *
+     * @return 1 if the avatar was updated, 0 if it was replaced, removed or already finished in the meantime
+     */
+    @Modifying
+    @Query("update Avatar a set a.previewStatus = :status "
+            + "where a.id = :id and a.contentHash = :contentHash and a.previewStatus = :pending")
+    int finishPreview(@Param("id") Long id, @Param("contentHash") String contentHash,
+                      @Param("pending") PreviewStatus pending, @Param("status") PreviewStatus status);
 }
@@ -0,0 +1,29 @@
+package ru.hogwarts.school.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.hogwarts.school.model.CollectionCounter;
+import ru.hogwarts.school.model.CollectionVersion;
+
+@Repository
+public interface CollectionCounterRepository extends JpaRepository<CollectionCounter, String> {
+
+    /**
+     * Raises the table's counter, creating it on the first write. The row stays locked until the writer
+     * commits, so writes to one table take turns at their commit, and a reader never sees the new counter
+     * before the rows it stands for.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into collection_counter (name, version) values (:name, 1) "
+            + "on conflict (name) do update set version = collection_counter.version + 1", nativeQuery = true)
+    int bump(@Param("name") String name);
+
+    @Query("select new ru.hogwarts.school.model.CollectionVersion(coalesce(max(c.version), 0)) "
+            + "from CollectionCounter c where c.name = :name")
+    CollectionVersion findVersion(@Param("name") String name);
+}
@@ -1,10 +1,8 @@
 package ru.hogwarts.school.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import ru.hogwarts.school.model.Faculty;
 
-import java.util.List;
-
-public interface FacultyRepository extends JpaRepository<Faculty, Long> {
-    List<Faculty> findByNameIgnoreCaseOrColorIgnoreCase(String name, String color);
-}
\ No newline at end of file
+public interface FacultyRepository extends JpaRepository<Faculty, Long>, JpaSpecificationExecutor<Faculty> {
+}
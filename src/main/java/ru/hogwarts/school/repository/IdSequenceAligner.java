@@ -0,0 +1,48 @@
+package ru.hogwarts.school.repository;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Moves each id sequence past the ids its table already holds. The tables were filled by identity columns
+ * before ids came from pooled sequences, and a fresh sequence would hand those ids out again.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class IdSequenceAligner {
+    private static final Logger log = LoggerFactory.getLogger(IdSequenceAligner.class);
+
+    private static final Map<String, String> SEQUENCES = Map.of(
+            "student", "student_seq",
+            "faculty", "faculty_seq",
+            "avatar", "avatar_seq",
+            "avatar_preview", "avatar_preview_seq");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IdSequenceAligner(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void align() {
+        SEQUENCES.forEach((table, sequence) -> {
+            long maxId = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from " + table, Long.class);
+            // last_value is null until the sequence is first used.
+            long lastValue = jdbcTemplate.queryForObject(
+                    "select coalesce(last_value, 0) from pg_sequences " +
+                            "where schemaname = current_schema() and sequencename = ?", Long.class, sequence);
+            if (maxId > lastValue) {
+                // The next call returns maxId plus the increment, and the pooled block below it starts at maxId + 1.
+                jdbcTemplate.queryForObject("select setval(cast(? as regclass), ?)", Long.class, sequence, maxId);
+                log.info("Moved {} from {} to {} past existing ids", sequence, lastValue, maxId);
+            }
+        });
+    }
+}
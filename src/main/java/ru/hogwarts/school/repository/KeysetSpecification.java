@@ -0,0 +1,48 @@
+package ru.hogwarts.school.repository;
+
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Path;
+import org.hibernate.query.sqm.NodeBuilder;
+import org.hibernate.query.sqm.tree.expression.SqmExpression;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Orders by one sort key with the id as tie-breaker and, given the last row of the previous page, keeps
+ * only the rows after it with a row-value comparison {@code (key, id) > (?, ?)}. Every sort key has a
+ * {@code (key, id)} index and a NOT NULL column, so the database seeks straight to the position through
+ * the index instead of counting off an OFFSET, and every page costs the same.
+ */
+public final class KeysetSpecification {
+    private static final String ID = "id";
+
+    private KeysetSpecification() {
+    }
+
+    /**
+     * @param afterValue sort value of the last row seen, or null for the first page
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <T> Specification<T> ordered(String key, boolean descending, Comparable afterValue, Long afterId) {
+        return (root, query, cb) -> {
+            Path<Long> id = root.get(ID);
+            if (ID.equals(key)) {
+                query.orderBy(descending ? cb.desc(id) : cb.asc(id));
+                if (afterId == null) {
+                    return null;
+                }
+                return descending ? cb.lessThan(id, afterId) : cb.greaterThan(id, afterId);
+            }
+            Path<Comparable> sortKey = root.get(key);
+            query.orderBy(descending ? cb.desc(sortKey) : cb.asc(sortKey), descending ? cb.desc(id) : cb.asc(id));
+            if (afterId == null) {
+                return null;
+            }
+            // JPA has no row values, so the tuples come from Hibernate's builder. Hibernate cannot bind a
+            // parameter inside a criteria tuple, so the cursor goes in as escaped literals.
+            NodeBuilder nodes = (NodeBuilder) cb;
+            Expression row = nodes.tuple(Object[].class, (SqmExpression<?>) sortKey, (SqmExpression<?>) id);
+            Expression after = nodes.tuple(Object[].class, nodes.literal(afterValue), nodes.literal(afterId));
+            return descending ? cb.lessThan(row, after) : cb.greaterThan(row, after);
+        };
+    }
+}
@@ -1,25 +1,69 @@
 package ru.hogwarts.school.repository;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
-import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.AgeGroup;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentName;
+import ru.hogwarts.school.model.StudentState;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface StudentRepository extends JpaRepository<Student, Long> {
+public interface StudentRepository extends JpaRepository<Student, Long>, JpaSpecificationExecutor<Student> {
+    @Override
+    @EntityGraph(attributePaths = "faculty")
+    Optional<Student> findById(Long id);
+
+    @EntityGraph(attributePaths = "faculty")
     List<Student> findByAgeBetween(int minAge, int maxAge);
 
-    List<Student> findByFaculty(Faculty faculty);
+    @EntityGraph(attributePaths = "faculty")
+    List<Student> findByFacultyId(Long facultyId);
+
+    @EntityGraph(attributePaths = "faculty")
+    List<Student> findTop5ByOrderByIdDesc();
+
+    @EntityGraph(attributePaths = "faculty")
+    List<Student> findByIdIn(Collection<Long> ids);
+
+    @Query("select new ru.hogwarts.school.model.StudentName(s.id, s.name) from Student s")
+    List<StudentName> findAllNames();
+
+    /**
+     * Streams every student with a cursor instead of materializing the table; must run in a transaction.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select s from Student s left join fetch s.faculty order by s.id")
+    Stream<Student> streamAll();
+
+    @Query("select new ru.hogwarts.school.model.StudentState(s.name, s.age, s.faculty.id, s.version) " +
+            "from Student s where s.id = :id")
+    Optional<StudentState> findStateById(@Param("id") Long id);
+
+    @Query("select s.id from Student s where s.id in :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    @Query("select new ru.hogwarts.school.model.AgeGroup(s.age, s.faculty.id, count(s)) " +
+            "from Student s group by s.age, s.faculty.id")
+    List<AgeGroup> countByAgeAndFaculty();
 
     @Query(value = "select count(*) from student", nativeQuery = true)
     int countAllStudents();
 
     @Query(value = "select avg(age) from student", nativeQuery = true)
     double countAvgAllStudents();
-
-    @Query(value = "select * from student order by id desc limit 5", nativeQuery = true)
-    List<Student> getLastStudent();
 }
\ No newline at end of file
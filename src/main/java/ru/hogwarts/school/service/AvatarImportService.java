@@ -0,0 +1,357 @@
+package ru.hogwarts.school.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import ru.hogwarts.school.model.AvatarImportFailure;
+import ru.hogwarts.school.model.AvatarImportReport;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+@Service
+public class AvatarImportService {
+    private static final Logger log = LoggerFactory.getLogger(AvatarImportService.class);
+    private static final int ID_CHUNK_SIZE = 1000;
+    private static final int KEPT_JOBS = 50;
+
+    private final AvatarService avatarService;
+    private final StudentRepository studentRepository;
+    private final ExecutorService workers;
+    private final ExecutorService jobRunner = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "avatar-import");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Semaphore inFlightBytes;
+    private final int maxInFlightBytes;
+    private final int maxFileSize;
+    private final int batchSize;
+    private final String baseDir;
+    private final Map<String, Job> jobs = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public AvatarImportService(AvatarService avatarService, StudentRepository studentRepository,
+                               @Value("${avatar.import.threads:0}") int threads,
+                               @Value("${avatar.import.max-in-flight-bytes:67108864}") int maxInFlightBytes,
+                               @Value("${avatar.import.max-file-size:10485760}") int maxFileSize,
+                               @Value("${avatar.import.batch-size:100}") int batchSize,
+                               @Value("${avatar.import.base-dir:}") String baseDir) {
+        this.avatarService = avatarService;
+        this.studentRepository = studentRepository;
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(poolSize, task -> {
+            Thread thread = new Thread(task, "avatar-import-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.inFlightBytes = new Semaphore(maxInFlightBytes);
+        this.maxFileSize = maxFileSize;
+        this.batchSize = batchSize;
+        this.baseDir = baseDir;
+    }
+
+    public AvatarImportReport startImport(Path source) {
+        return submit(new Job(source, false));
+    }
+
+    public AvatarImportReport startImport(MultipartFile archive) throws IOException {
+        Path file = Files.createTempFile("avatar-import", ".zip");
+        archive.transferTo(file);
+        return submit(new Job(file, true));
+    }
+
+    /**
+     * Resolves a server-side directory for an HTTP import; only paths below avatar.import.base-dir are allowed.
+     */
+    public Path resolveImportDirectory(String directory) {
+        if (baseDir.isBlank()) {
+            return null;
+        }
+        Path base = Path.of(baseDir).toAbsolutePath().normalize();
+        Path resolved = base.resolve(directory).normalize();
+        return resolved.startsWith(base) && Files.isDirectory(resolved) ? resolved : null;
+    }
+
+    public AvatarImportReport importAndWait(Path source) {
+        Job job = new Job(source, false);
+        remember(job);
+        run(job);
+        return job.report();
+    }
+
+    public AvatarImportReport getReport(String id) {
+        Job job = jobs.get(id);
+        return job == null ? null : job.report();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobRunner.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private AvatarImportReport submit(Job job) {
+        remember(job);
+        jobRunner.execute(() -> run(job));
+        return job.report();
+    }
+
+    private void remember(Job job) {
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            while (jobs.size() > KEPT_JOBS) {
+                jobs.remove(jobs.keySet().iterator().next());
+            }
+        }
+    }
+
+    private void run(Job job) {
+        job.status = AvatarImportReport.Status.RUNNING;
+        job.startedAt = System.nanoTime();
+        try (ImportSource source = open(job.source)) {
+            List<ImportEntry> entries = source.entries();
+            job.total = entries.size();
+            Set<Long> knownStudents = findExistingStudents(entries);
+
+            CompletionService<Prepared> completion = new ExecutorCompletionService<>(workers);
+            Map<Long, ImportedContent> batch = new LinkedHashMap<>();
+            Map<Long, String> batchNames = new LinkedHashMap<>();
+            int pending = 0;
+            for (ImportEntry entry : entries) {
+                Long studentId = studentIdOf(entry.name());
+                if (studentId == null || !knownStudents.contains(studentId)) {
+                    job.fail(entry.name(), studentId == null ? "File name is not a student id" : "Student not found");
+                    continue;
+                }
+                if (entry.size() > maxFileSize) {
+                    job.fail(entry.name(), "File is larger than " + maxFileSize + " bytes");
+                    continue;
+                }
+                // Memory stays bounded: a file is only read once its bytes fit into the in-flight budget.
+                int permits = (int) Math.min(entry.size() < 0 ? maxFileSize : Math.max(entry.size(), 1), maxInFlightBytes);
+                inFlightBytes.acquire(permits);
+                completion.submit(() -> prepare(entry, studentId, permits));
+                pending++;
+                Future<Prepared> done;
+                while ((done = completion.poll()) != null) {
+                    pending--;
+                    collect(job, done, batch, batchNames);
+                }
+            }
+            while (pending > 0) {
+                collect(job, completion.take(), batch, batchNames);
+                pending--;
+            }
+            flush(job, batch, batchNames);
+            job.status = AvatarImportReport.Status.DONE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.status = AvatarImportReport.Status.FAILED;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Avatar import from {} failed", job.source, e);
+            job.status = AvatarImportReport.Status.FAILED;
+        } finally {
+            job.finishedAt = System.nanoTime();
+            if (job.deleteSource) {
+                try {
+                    Files.deleteIfExists(job.source);
+                } catch (IOException e) {
+                    log.warn("Could not delete import archive {}", job.source, e);
+                }
+            }
+            AvatarImportReport report = job.report();
+            log.info("Avatar import {}: {} of {} imported, {} failed in {} ms", report.id(), report.imported(),
+                    report.total(), report.failed(), report.elapsedMillis());
+        }
+    }
+
+    private Prepared prepare(ImportEntry entry, Long studentId, int permits) {
+        try (InputStream is = entry.open()) {
+            byte[] content = is.readNBytes(maxFileSize + 1);
+            if (content.length > maxFileSize) {
+                return new Prepared(entry.name(), studentId, null, "File is larger than " + maxFileSize + " bytes");
+            }
+            ImportedContent imported = avatarService.prepareImport(entry.name(), content, () -> {
+                try (InputStream again = entry.open()) {
+                    return again.readNBytes(maxFileSize + 1);
+                }
+            });
+            return new Prepared(entry.name(), studentId, imported, null);
+        } catch (IOException | RuntimeException e) {
+            return new Prepared(entry.name(), studentId, null, String.valueOf(e.getMessage()));
+        } finally {
+            inFlightBytes.release(permits);
+        }
+    }
+
+    private void collect(Job job, Future<Prepared> done, Map<Long, ImportedContent> batch,
+                         Map<Long, String> batchNames) throws InterruptedException {
+        Prepared prepared;
+        try {
+            prepared = done.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        if (prepared.error() != null) {
+            job.fail(prepared.name(), prepared.error());
+            return;
+        }
+        if (batch.containsKey(prepared.studentId())) {
+            // The same student appears twice in this batch; the later file wins.
+            job.processed.incrementAndGet();
+        }
+        batch.put(prepared.studentId(), prepared.content());
+        batchNames.put(prepared.studentId(), prepared.name());
+        if (batch.size() >= batchSize) {
+            flush(job, batch, batchNames);
+        }
+    }
+
+    private void flush(Job job, Map<Long, ImportedContent> batch, Map<Long, String> batchNames) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            avatarService.saveImported(batch);
+            job.imported.addAndGet(batch.size());
+            job.processed.addAndGet(batch.size());
+        } catch (RuntimeException e) {
+            log.warn("Could not save a batch of {} imported avatars", batch.size(), e);
+            batchNames.values().forEach(name -> job.fail(name, "Batch could not be saved: " + e.getMessage()));
+        }
+        batch.clear();
+        batchNames.clear();
+    }
+
+    private Set<Long> findExistingStudents(List<ImportEntry> entries) {
+        List<Long> ids = new ArrayList<>();
+        for (ImportEntry entry : entries) {
+            Long id = studentIdOf(entry.name());
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        Set<Long> existing = new HashSet<>();
+        for (int i = 0; i < ids.size(); i += ID_CHUNK_SIZE) {
+            existing.addAll(studentRepository.findExistingIds(ids.subList(i, Math.min(ids.size(), i + ID_CHUNK_SIZE))));
+        }
+        return existing;
+    }
+
+    private static Long studentIdOf(String name) {
+        String fileName = name.substring(name.lastIndexOf('/') + 1);
+        int dot = fileName.lastIndexOf('.');
+        try {
+            return Long.valueOf(dot < 0 ? fileName : fileName.substring(0, dot));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static ImportSource open(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            List<ImportEntry> entries = new ArrayList<>();
+            try (Stream<Path> files = Files.list(source)) {
+                for (Path file : files.filter(Files::isRegularFile).toList()) {
+                    entries.add(new ImportEntry(file.getFileName().toString(), Files.size(file),
+                            () -> Files.newInputStream(file)));
+                }
+            }
+            return new ImportSource(entries, null);
+        }
+        ZipFile zip = new ZipFile(source.toFile());
+        List<ImportEntry> entries = new ArrayList<>();
+        for (ZipEntry entry : Collections.list(zip.entries())) {
+            if (!entry.isDirectory()) {
+                entries.add(new ImportEntry(entry.getName(), entry.getSize(), () -> zip.getInputStream(entry)));
+            }
+        }
+        return new ImportSource(entries, zip);
+    }
+
+    private interface EntryOpener {
+        InputStream open() throws IOException;
+    }
+
+    private record ImportEntry(String name, long size, EntryOpener opener) {
+        InputStream open() throws IOException {
+            return opener.open();
+        }
+    }
+
+    private record ImportSource(List<ImportEntry> entries, Closeable resource) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            if (resource != null) {
+                resource.close();
+            }
+        }
+    }
+
+    private record Prepared(String name, Long studentId, ImportedContent content, String error) {
+    }
+
+    private static class Job {
+        private final String id = UUID.randomUUID().toString();
+        private final Path source;
+        private final boolean deleteSource;
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicInteger imported = new AtomicInteger();
+        private final List<AvatarImportFailure> failures = Collections.synchronizedList(new ArrayList<>());
+        private volatile AvatarImportReport.Status status = AvatarImportReport.Status.QUEUED;
+        private volatile int total;
+        private volatile long startedAt;
+        private volatile long finishedAt;
+
+        Job(Path source, boolean deleteSource) {
+            this.source = source;
+            this.deleteSource = deleteSource;
+        }
+
+        void fail(String name, String reason) {
+            failures.add(new AvatarImportFailure(name, reason));
+            processed.incrementAndGet();
+        }
+
+        AvatarImportReport report() {
+            long end = finishedAt != 0 ? finishedAt : System.nanoTime();
+            long elapsedMillis = startedAt == 0 ? 0 : (end - startedAt) / 1_000_000;
+            List<AvatarImportFailure> failureCopy;
+            synchronized (failures) {
+                failureCopy = List.copyOf(failures);
+            }
+            int done = processed.get();
+            return new AvatarImportReport(id, status, source.getFileName().toString(), total, done, imported.get(),
+                    failureCopy.size(), failureCopy, elapsedMillis,
+                    elapsedMillis == 0 ? 0 : done * 1000.0 / elapsedMillis);
+        }
+    }
+}
@@ -1,36 +1,112 @@
 package ru.hogwarts.school.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import ru.hogwarts.school.cache.AfterCommit;
+import ru.hogwarts.school.cache.CacheInvalidationBus;
 import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarPreview;
+import ru.hogwarts.school.model.AvatarView;
+import ru.hogwarts.school.model.CursorPage;
+import ru.hogwarts.school.model.PreviewCacheStats;
+import ru.hogwarts.school.model.PreviewContent;
+import ru.hogwarts.school.model.PreviewPackStats;
+import ru.hogwarts.school.model.PreviewStatus;
+import ru.hogwarts.school.model.PreviewWorkerStats;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.AvatarPreviewRepository;
 import ru.hogwarts.school.repository.AvatarRepository;
 import ru.hogwarts.school.repository.StudentRepository;
+import ru.hogwarts.school.storage.AvatarStorage;
+import ru.hogwarts.school.storage.AvatarStorageConfig;
+import ru.hogwarts.school.storage.PreviewPackfile;
+import ru.hogwarts.school.storage.StoredBlob;
+import ru.hogwarts.school.storage.StoredContent;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.*;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
-import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 @Service
 public class AvatarService {
+    private static final Logger log = LoggerFactory.getLogger(AvatarService.class);
+
+    // Held until the transaction ends; hashtext maps the content hash onto the lock's integer key.
+    private static final String LOCK_CONTENT = "select pg_advisory_xact_lock(hashtext(?))";
+
     private final AvatarRepository avatarRepository;
+    private final AvatarPreviewRepository avatarPreviewRepository;
     private final StudentRepository studentRepository;
+    private final PreviewWorkerPool previewWorkerPool;
+    private final PreviewCache previewCache;
+    private final PreviewRenderer previewRenderer;
+    private final AvatarStorage originalStorage;
+    private final AvatarStorage previewStorage;
+    private final PreviewPackfile previewPackfile;
+    private final CacheInvalidationBus cacheInvalidationBus;
+    private final TransactionTemplate newTransaction;
+    private final JdbcTemplate jdbcTemplate;
+    private final KeysetPager<Avatar> avatarPager;
 
     @Value("${path.to.avatars.folder}")
     private String avatarsDir;
 
-    public AvatarService(AvatarRepository avatarRepository, StudentRepository studentRepository) {
+    public AvatarService(AvatarRepository avatarRepository, AvatarPreviewRepository avatarPreviewRepository,
+                         StudentRepository studentRepository, PreviewWorkerPool previewWorkerPool,
+                         PreviewCache previewCache, PreviewRenderer previewRenderer,
+                         @Qualifier(AvatarStorageConfig.ORIGINALS) AvatarStorage originalStorage,
+                         @Qualifier(AvatarStorageConfig.PREVIEWS) AvatarStorage previewStorage,
+                         PreviewPackfile previewPackfile, CacheInvalidationBus cacheInvalidationBus,
+                         PlatformTransactionManager transactionManager, JdbcTemplate jdbcTemplate) {
         this.avatarRepository = avatarRepository;
+        this.avatarPreviewRepository = avatarPreviewRepository;
         this.studentRepository = studentRepository;
+        this.previewWorkerPool = previewWorkerPool;
+        this.previewCache = previewCache;
+        this.previewRenderer = previewRenderer;
+        this.originalStorage = originalStorage;
+        this.previewStorage = previewStorage;
+        this.previewPackfile = previewPackfile;
+        this.cacheInvalidationBus = cacheInvalidationBus;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.jdbcTemplate = jdbcTemplate;
+        this.avatarPager = new KeysetPager<>(avatarRepository,
+                Map.of("id", Avatar::getId, "fileSize", Avatar::getFileSize), Avatar::getId);
+        cacheInvalidationBus.onRemoteChange(CacheInvalidationBus.Entity.AVATAR, ids -> ids.forEach(this::evictPreview));
+        // The preview pack outlives a restart, so it also has to forget what changed while this node was down.
+        cacheInvalidationBus.onMissedChangesOrRestart(this::evictAllPreviews);
     }
 
     @Transactional(readOnly = true)
@@ -38,51 +114,626 @@ public class AvatarService {
         return avatarRepository.findByStudentId(studentId).orElse(new Avatar());
     }
 
+    /**
+     * Locates the original upload of the student's avatar, or returns null if there is none.
+     */
+    @Transactional(readOnly = true)
+    public StoredContent findOriginal(Long studentId) throws IOException {
+        Avatar avatar = avatarRepository.findByStudentId(studentId).orElse(null);
+        if (avatar == null) {
+            return null;
+        }
+        if (avatar.getContentHash() == null) {
+            return findLegacyOriginal(avatar);
+        }
+        StoredBlob blob = originalStorage.stat(avatar.getContentHash());
+        return blob == null ? null : new StoredContent(originalStorage, avatar.getContentHash(), blob, avatar.getMediaType());
+    }
+
+    private static StoredContent findLegacyOriginal(Avatar avatar) throws IOException {
+        if (avatar.getFilePath() == null || !Files.exists(Path.of(avatar.getFilePath()))) {
+            return null;
+        }
+        Path path = Path.of(avatar.getFilePath());
+        StoredBlob blob = new StoredBlob(Files.size(path), Files.getLastModifiedTime(path).toMillis(), path);
+        return new StoredContent(null, null, blob, avatar.getMediaType());
+    }
+
+    /**
+     * Moves an avatar saved before content-addressed storage into it: the file at its path or, if that is
+     * gone, the bytes the old data column held. The file is deleted once the move commits, and the previews
+     * are rendered afterwards, as for an upload.
+     *
+     * @param legacyData the avatar's data column, or null if there is none
+     * @return false if the avatar has been migrated meanwhile or none of its bytes are left
+     */
     @Transactional
-    public void upLoadAvatar(Long studentId, MultipartFile avatarFile) throws IOException {
-        Student student = studentRepository.getById(studentId);
-        Path filePath = Path.of(avatarsDir, student + "." + getExtentions(avatarFile.getOriginalFilename()));
-        Files.createDirectories(filePath.getParent());
-        Files.deleteIfExists(filePath);
-        try (InputStream is = avatarFile.getInputStream();
-             OutputStream os = Files.newOutputStream(filePath, CREATE_NEW);
-             BufferedInputStream bis = new BufferedInputStream(is, 1024);
-             BufferedOutputStream bos = new BufferedOutputStream(os, 1024)) {
-            bis.transferTo(bos);
+    public boolean migrateLegacyAvatar(Long avatarId, byte[] legacyData) throws IOException {
+        Avatar avatar = avatarRepository.findById(avatarId).orElse(null);
+        if (avatar == null || avatar.getContentHash() != null) {
+            return false;
+        }
+        String legacyPath = avatar.getFilePath();
+        SpooledUpload upload;
+        if (legacyPath != null && Files.exists(Path.of(legacyPath))) {
+            try (InputStream is = Files.newInputStream(Path.of(legacyPath))) {
+                upload = spool(is, false);
+            }
+        } else if (legacyData != null) {
+            upload = spool(new ByteArrayInputStream(legacyData), false);
+        } else {
+            return false;
+        }
+        String contentHash = upload.contentHash();
+        long size;
+        boolean stored;
+        try {
+            lockContent(List.of(contentHash));
+            size = Files.size(upload.file());
+            stored = isStored(contentHash);
+            if (!stored) {
+                originalStorage.put(contentHash, upload.file());
+            }
+        } finally {
+            Files.deleteIfExists(upload.file());
         }
+        avatar.setPreviewStatus(stored ? PreviewStatus.READY : PreviewStatus.PENDING);
+        avatar.setFilePath(null);
+        avatar.setContentHash(contentHash);
+        avatar.setFileSize(size);
+        avatarRepository.save(avatar);
+        releaseContent(legacyPath, null, contentHash);
+        invalidatePreviewsAfterCommit(List.of(avatar.getStudent().getId()));
+        if (!stored) {
+            AfterCommit.run(() -> previewWorkerPool.submit(() -> generatePreview(avatarId)));
+        }
+        return true;
+    }
+
+    public PreviewContent findPreview(Long studentId, Integer requestedWidth, List<MediaType> accepted)
+            throws IOException {
+        int width = previewRenderer.bucketFor(requestedWidth);
+        PreviewContent stored = findStoredPreview(studentId, width);
+        if (stored == null) {
+            return null;
+        }
+        String mediaType = negotiate(stored.mediaType(), accepted);
+        if (mediaType.equals(stored.mediaType())) {
+            return stored;
+        }
+        PreviewCache.Key key = new PreviewCache.Key(studentId, width, mediaType);
+        PreviewContent cached = previewCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] data = previewRenderer.transcode(stored.data(), mediaType);
+        PreviewContent content = new PreviewContent(data, mediaType, eTagOf(data));
+        previewCache.put(key, content);
+        return content;
+    }
+
+    /**
+     * Serves the preview as stored from the memory-mapped pack; only a miss goes to the database, and its
+     * result is appended to the pack so the next request for the student does not.
+     */
+    private PreviewContent findStoredPreview(Long studentId, int width) throws IOException {
+        PreviewContent packed = previewPackfile.get(studentId, width);
+        if (packed != null) {
+            return packed;
+        }
+        long stamp = previewPackfile.stamp();
+        AvatarPreview preview = avatarPreviewRepository.findByStudentIdAndWidth(studentId, width).orElse(null);
+        if (preview == null) {
+            return null;
+        }
+        byte[] data = previewStorage.read(previewKey(preview.getContentHash(), width));
+        PreviewContent content = new PreviewContent(data, preview.getMediaType(), eTagOf(data));
+        previewPackfile.put(studentId, width, content, stamp);
+        return content;
+    }
+
+    /**
+     * Prefers the stored format and only transcodes when the client ranks another supported format higher.
+     */
+    private static String negotiate(String storedType, List<MediaType> accepted) {
+        if (accepted.isEmpty()) {
+            return storedType;
+        }
+        String best = storedType;
+        double bestQuality = 0;
+        for (String candidate : List.of(storedType, MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE)) {
+            double quality = qualityOf(MediaType.parseMediaType(candidate), accepted);
+            if (quality > bestQuality) {
+                best = candidate;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static double qualityOf(MediaType candidate, List<MediaType> accepted) {
+        MediaType match = null;
+        for (MediaType range : accepted) {
+            if (range.includes(candidate) && (match == null || specificity(range) > specificity(match))) {
+                match = range;
+            }
+        }
+        return match == null ? 0 : match.getQualityValue();
+    }
+
+    private static int specificity(MediaType range) {
+        return range.isWildcardType() ? 0 : range.isWildcardSubtype() ? 1 : 2;
+    }
+
+    public PreviewCacheStats getPreviewCacheStats() {
+        return previewCache.getStats();
+    }
+
+    public PreviewPackStats getPreviewPackStats() throws IOException {
+        return previewPackfile.getStats();
+    }
+
+    @Transactional
+    public void upLoadAvatar(Long studentId, MultipartFile avatarFile) throws IOException {
+        Student student = studentRepository.getReferenceById(studentId);
+        SpooledUpload upload = spool(avatarFile, true);
+        String contentHash = upload.contentHash();
         Avatar avatar = findAvatar(studentId);
+        String previousPath = avatar.getFilePath();
+        String previousHash = avatar.getContentHash();
+
+        try {
+            lockContent(Arrays.asList(contentHash, previousHash));
+            if (!isStored(contentHash)) {
+                originalStorage.put(contentHash, upload.file());
+                savePreviews(renderPreviews(contentHash, upload.image()));
+            }
+        } finally {
+            Files.deleteIfExists(upload.file());
+        }
         avatar.setStudent(student);
-        avatar.setFilePath(filePath.toString());
+        avatar.setFilePath(null);
+        avatar.setContentHash(contentHash);
         avatar.setFileSize(avatarFile.getSize());
         avatar.setMediaType(avatarFile.getContentType());
-        avatar.setData(generateDataForDB(filePath));
+        avatar.setPreviewStatus(PreviewStatus.READY);
         avatarRepository.save(avatar);
+        releaseContent(previousPath, previousHash, contentHash);
+        invalidatePreviewsAfterCommit(List.of(studentId));
+    }
+
+    @Transactional
+    public void upLoadAvatarAsync(Long studentId, MultipartFile avatarFile) throws IOException {
+        Student student = studentRepository.getReferenceById(studentId);
+        SpooledUpload upload = spool(avatarFile, false);
+        String contentHash = upload.contentHash();
+        Avatar avatar = findAvatar(studentId);
+        String previousPath = avatar.getFilePath();
+        String previousHash = avatar.getContentHash();
+
+        boolean stored;
+        try {
+            lockContent(Arrays.asList(contentHash, previousHash));
+            stored = isStored(contentHash);
+            if (!stored) {
+                originalStorage.put(contentHash, upload.file());
+            }
+        } finally {
+            Files.deleteIfExists(upload.file());
+        }
+        avatar.setPreviewStatus(stored ? PreviewStatus.READY : PreviewStatus.PENDING);
+        avatar.setStudent(student);
+        avatar.setFilePath(null);
+        avatar.setContentHash(contentHash);
+        avatar.setFileSize(avatarFile.getSize());
+        avatar.setMediaType(avatarFile.getContentType());
+        Long avatarId = avatarRepository.save(avatar).getId();
+        releaseContent(previousPath, previousHash, contentHash);
+        invalidatePreviewsAfterCommit(List.of(studentId));
+        if (!stored) {
+            // Resizing is CPU-bound, so it runs after the commit and without holding a connection.
+            AfterCommit.run(() -> previewWorkerPool.submit(() -> generatePreview(avatarId)));
+        }
+    }
+
+    /**
+     * Stores the original and renders its previews for a bulk import; runs on import workers without a transaction.
+     * Nothing refers to the content until its batch is saved, so that checks it again under the content lock.
+     *
+     * @param source reads the file again if its content has to be stored once more
+     */
+    ImportedContent prepareImport(String fileName, byte[] content, ImportedContent.Source source) throws IOException {
+        String contentHash = HexFormat.of().formatHex(sha256().digest(content));
+        List<AvatarPreview> previews = List.of();
+        boolean previewsStored = avatarPreviewRepository.existsByContentHash(contentHash);
+        if (!previewsStored || !originalStorage.exists(contentHash)) {
+            SpooledUpload upload = spool(new ByteArrayInputStream(content), !previewsStored);
+            try {
+                originalStorage.put(contentHash, upload.file());
+            } finally {
+                Files.deleteIfExists(upload.file());
+            }
+            if (!previewsStored) {
+                previews = renderPreviews(contentHash, upload.image());
+            }
+        }
+        String mediaType = MediaTypeFactory.getMediaType(fileName)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                .toString();
+        return new ImportedContent(contentHash, content.length, mediaType, previews, source);
+    }
+
+    /**
+     * Saves one batch of imported avatars, keyed by student id, in a single transaction.
+     */
+    @Transactional
+    void saveImported(Map<Long, ImportedContent> contents) {
+        Map<Long, Avatar> existing = new HashMap<>();
+        for (Avatar avatar : avatarRepository.findByStudentIdIn(contents.keySet())) {
+            existing.put(avatar.getStudent().getId(), avatar);
+        }
+        // Of several files with the same content, prefer one that came with its previews rendered.
+        Map<String, ImportedContent> byHash = new HashMap<>();
+        contents.values().forEach(content -> byHash.merge(content.contentHash(), content,
+                (kept, other) -> kept.previews().isEmpty() ? other : kept));
+        List<String> touched = new ArrayList<>(byHash.keySet());
+        existing.values().forEach(avatar -> touched.add(avatar.getContentHash()));
+        lockContent(touched);
+        Set<String> storedPreviews = new HashSet<>(avatarPreviewRepository.findContentHashesIn(byHash.keySet()));
+
+        List<AvatarPreview> previews = new ArrayList<>();
+        try {
+            for (ImportedContent content : byHash.values()) {
+                previews.addAll(storeIfDeleted(content, storedPreviews.contains(content.contentHash())));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<Avatar> avatars = new ArrayList<>();
+        List<Runnable> releases = new ArrayList<>();
+        for (Map.Entry<Long, ImportedContent> entry : contents.entrySet()) {
+            ImportedContent content = entry.getValue();
+            Avatar avatar = existing.get(entry.getKey());
+            if (avatar == null) {
+                avatar = new Avatar();
+                avatar.setStudent(studentRepository.getReferenceById(entry.getKey()));
+            } else {
+                String previousPath = avatar.getFilePath();
+                String previousHash = avatar.getContentHash();
+                releases.add(() -> releaseContent(previousPath, previousHash, content.contentHash()));
+            }
+            avatar.setFilePath(null);
+            avatar.setContentHash(content.contentHash());
+            avatar.setFileSize(content.size());
+            avatar.setMediaType(content.mediaType());
+            avatar.setPreviewStatus(PreviewStatus.READY);
+            avatars.add(avatar);
+        }
+        savePreviews(previews);
+        avatarRepository.saveAll(avatars);
+        // Reference counts are only correct once the new rows are flushed, so release afterwards.
+        releases.forEach(Runnable::run);
+        invalidatePreviewsAfterCommit(contents.keySet());
+    }
+
+    /**
+     * Stores the content again if a release deleted it after {@link #prepareImport} wrote or found it and
+     * before the batch took the content lock; holding the lock, nothing can delete it any more.
+     *
+     * @param previewsRecorded whether preview rows exist, in which case their blobs do too
+     * @return the previews still to be recorded
+     */
+    private List<AvatarPreview> storeIfDeleted(ImportedContent content, boolean previewsRecorded) throws IOException {
+        String contentHash = content.contentHash();
+        boolean originalStored = originalStorage.exists(contentHash);
+        boolean previewsStored = previewsRecorded || (!content.previews().isEmpty()
+                && content.previews().stream().allMatch(preview -> previewExists(contentHash, preview.getWidth())));
+        List<AvatarPreview> previews = previewsRecorded ? List.of() : content.previews();
+        if (originalStored && previewsStored) {
+            return previews;
+        }
+        SpooledUpload upload = spool(new ByteArrayInputStream(content.source().read()), !previewsStored);
+        try {
+            if (!upload.contentHash().equals(contentHash)) {
+                throw new IOException("Imported file changed while importing: " + contentHash);
+            }
+            if (!originalStored) {
+                originalStorage.put(contentHash, upload.file());
+            }
+        } finally {
+            Files.deleteIfExists(upload.file());
+        }
+        return previewsStored ? previews : renderPreviews(contentHash, upload.image());
+    }
+
+    private boolean previewExists(String contentHash, int width) {
+        try {
+            return previewStorage.exists(previewKey(contentHash, width));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Removes the student's avatar and releases its content once nothing else refers to it.
+     */
+    @Transactional
+    public void deleteAvatar(Long studentId) {
+        Avatar avatar = avatarRepository.findByStudentId(studentId).orElse(null);
+        if (avatar == null) {
+            return;
+        }
+        lockContent(Collections.singletonList(avatar.getContentHash()));
+        avatarRepository.delete(avatar);
+        releaseContent(avatar.getFilePath(), avatar.getContentHash(), null);
+        invalidatePreviewsAfterCommit(List.of(studentId));
+    }
+
+    /**
+     * Removes the avatars of all the given students with one delete statement.
+     */
+    @Transactional
+    public void deleteAvatars(Collection<Long> studentIds) {
+        List<Avatar> avatars = avatarRepository.findByStudentIdIn(studentIds);
+        if (avatars.isEmpty()) {
+            return;
+        }
+        lockContent(avatars.stream().map(Avatar::getContentHash).toList());
+        avatarRepository.deleteAllInBatch(avatars);
+        Set<String> releasedHashes = new HashSet<>();
+        for (Avatar avatar : avatars) {
+            if (avatar.getContentHash() == null || releasedHashes.add(avatar.getContentHash())) {
+                releaseContent(avatar.getFilePath(), avatar.getContentHash(), null);
+            }
+        }
+        invalidatePreviewsAfterCommit(avatars.stream().map(avatar -> avatar.getStudent().getId()).toList());
+    }
+
+    @Transactional(readOnly = true)
+    public PreviewStatus getPreviewStatus(Long studentId) {
+        return avatarRepository.findByStudentId(studentId)
+                .map(avatar -> avatar.getPreviewStatus() == null ? PreviewStatus.READY : avatar.getPreviewStatus())
+                .orElse(null);
+    }
+
+    public PreviewWorkerStats getPreviewWorkerStats() {
+        return previewWorkerPool.getStats();
+    }
+
+    /**
+     * Renders outside any transaction and records the result in a new one, since this may run on the uploader's
+     * thread after its transaction has committed. The result only lands if the avatar still waits for this content;
+     * if it was replaced or removed while rendering, the rendered previews are dropped.
+     */
+    private void generatePreview(Long avatarId) {
+        Avatar avatar = avatarRepository.findById(avatarId).orElse(null);
+        if (avatar == null || avatar.getPreviewStatus() != PreviewStatus.PENDING) {
+            return;
+        }
+        String contentHash = avatar.getContentHash();
+        Long studentId = avatar.getStudent().getId();
+        List<AvatarPreview> previews;
+        try (InputStream is = originalStorage.open(contentHash)) {
+            // Another upload of the same content may have produced the preview in the meantime.
+            previews = avatarPreviewRepository.existsByContentHash(contentHash)
+                    ? List.of()
+                    : renderPreviews(contentHash, previewRenderer.decode(is));
+        } catch (IOException | RuntimeException e) {
+            newTransaction.executeWithoutResult(status -> avatarRepository.finishPreview(
+                    avatarId, contentHash, PreviewStatus.PENDING, PreviewStatus.FAILED));
+            throw new IllegalStateException("Failed to generate preview for avatar " + avatarId, e);
+        }
+        Boolean finished = newTransaction.execute(status -> {
+            int updated = avatarRepository.finishPreview(avatarId, contentHash, PreviewStatus.PENDING, PreviewStatus.READY);
+            if (updated == 0) {
+                return false;
+            }
+            savePreviews(previews);
+            return true;
+        });
+        if (!Boolean.TRUE.equals(finished)) {
+            discardPreviews(contentHash, previews);
+            return;
+        }
+        evictPreview(studentId);
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.AVATAR, List.of(studentId));
+    }
+
+    /**
+     * Deletes the blobs of previews that were rendered but never recorded, unless the content is in use again.
+     */
+    private void discardPreviews(String contentHash, List<AvatarPreview> previews) {
+        if (previews.isEmpty()) {
+            return;
+        }
+        newTransaction.executeWithoutResult(status -> {
+            lockContent(List.of(contentHash));
+            if (isReferenced(contentHash)) {
+                return;
+            }
+            for (AvatarPreview preview : previews) {
+                try {
+                    previewStorage.delete(previewKey(contentHash, preview.getWidth()));
+                } catch (IOException e) {
+                    log.warn("Failed to delete unused preview {} of {}", preview.getWidth(), contentHash, e);
+                }
+            }
+        });
+    }
+
+    private List<AvatarPreview> renderPreviews(String contentHash, DecodedImage image) throws IOException {
+        List<AvatarPreview> previews = new ArrayList<>();
+        for (Map.Entry<Integer, byte[]> preview : previewRenderer.renderPyramid(image).entrySet()) {
+            previewStorage.put(previewKey(contentHash, preview.getKey()), preview.getValue());
+            previews.add(new AvatarPreview(null, contentHash, preview.getKey(), image.mediaType(), preview.getValue().length));
+        }
+        return previews;
+    }
+
+    private static String previewKey(String contentHash, int width) {
+        return contentHash + "-" + width;
+    }
+
+    /**
+     * Records the previews, skipping widths that another upload of the same content recorded concurrently.
+     */
+    private void savePreviews(List<AvatarPreview> previews) {
+        for (AvatarPreview preview : previews) {
+            avatarPreviewRepository.insertIfAbsent(preview.getContentHash(), preview.getWidth(),
+                    preview.getMediaType(), preview.getSize());
+        }
     }
 
-    private byte[] generateDataForDB(Path filePath) throws IOException {
-        try (
-                InputStream is = Files.newInputStream(filePath);
-                BufferedInputStream bis = new BufferedInputStream(is, 1024);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            BufferedImage image = ImageIO.read(bis);
+    /**
+     * Serialises, until the transaction ends, everything that checks or changes which rows refer to the given
+     * content, so an upload deciding the content is already stored and a release deciding nothing needs it any
+     * more cannot interleave. The locks are taken in one fixed order, so two transactions never wait on each other.
+     */
+    private void lockContent(Collection<String> contentHashes) {
+        contentHashes.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .forEach(contentHash -> jdbcTemplate.query(LOCK_CONTENT, rs -> null, contentHash));
+    }
 
-            int height = image.getHeight() / (image.getWidth() / 100);
-            BufferedImage preview = new BufferedImage(100, height, image.getType());
-            Graphics2D graphics2D = preview.createGraphics();
-            graphics2D.drawImage(image, 0, 0, 100, height, null);
-            graphics2D.dispose();
+    private boolean isStored(String contentHash) throws IOException {
+        return originalStorage.exists(contentHash) && avatarPreviewRepository.existsByContentHash(contentHash);
+    }
+
+    private boolean isReferenced(String contentHash) {
+        return avatarRepository.countByContentHash(contentHash) > 0
+                || avatarPreviewRepository.existsByContentHash(contentHash);
+    }
 
-            ImageIO.write(preview, getExtentions(filePath.getFileName().toString()), baos);
-            return baos.toByteArray();
+    private SpooledUpload spool(MultipartFile avatarFile, boolean decode) throws IOException {
+        try (InputStream is = avatarFile.getInputStream()) {
+            return spool(is, decode);
         }
     }
 
-    private String getExtentions(String fileName) {
-        return fileName.substring(fileName.lastIndexOf(".") + 1);
+    /**
+     * Copies the upload to a temp file in a single pass, hashing it and, when asked, decoding it on the way.
+     * The caller deletes the file.
+     */
+    private SpooledUpload spool(InputStream is, boolean decode) throws IOException {
+        Path tmpDir = Path.of(avatarsDir, "tmp");
+        Files.createDirectories(tmpDir);
+        Path tmpFile = Files.createTempFile(tmpDir, "upload", null);
+        try (FileChannel channel = FileChannel.open(tmpFile, WRITE, TRUNCATE_EXISTING);
+             TeeInputStream tee = new TeeInputStream(is, channel, sha256())) {
+            DecodedImage image = decode ? previewRenderer.decode(tee) : null;
+            tee.drain();
+            return new SpooledUpload(tmpFile, HexFormat.of().formatHex(tee.digest()), image);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmpFile);
+            throw e;
+        }
+    }
+
+    private record SpooledUpload(Path file, String contentHash, DecodedImage image) {
+    }
+
+    private void releaseContent(String previousPath, String previousHash, String contentHash) {
+        if (previousHash == null) {
+            if (previousPath != null) {
+                runAfterCommit(() -> Files.deleteIfExists(Path.of(previousPath)), previousPath);
+            }
+            return;
+        }
+        // Content is shared by every avatar with the same hash and goes once the last one moves on.
+        if (previousHash.equals(contentHash) || avatarRepository.countByContentHash(previousHash) > 0) {
+            return;
+        }
+        List<String> previewKeys = new ArrayList<>();
+        for (int width : avatarPreviewRepository.findWidthsByContentHash(previousHash)) {
+            previewKeys.add(previewKey(previousHash, width));
+        }
+        avatarPreviewRepository.deleteByContentHash(previousHash);
+        runAfterCommit(() -> deleteIfUnreferenced(previousHash, previewKeys), previousHash);
+    }
+
+    /**
+     * Deletes the blobs of released content unless an upload has started referring to it again since the
+     * release committed; such an upload held the same lock when it decided whether to store the content.
+     */
+    private void deleteIfUnreferenced(String contentHash, List<String> previewKeys) {
+        newTransaction.executeWithoutResult(status -> {
+            lockContent(List.of(contentHash));
+            if (isReferenced(contentHash)) {
+                return;
+            }
+            try {
+                originalStorage.delete(contentHash);
+                for (String previewKey : previewKeys) {
+                    previewStorage.delete(previewKey);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private interface StorageAction {
+        void run() throws IOException;
     }
 
-    public List<Avatar> findAllAvatars(Integer pageNumber, Integer pageSize) {
-        PageRequest pageRequest = PageRequest.of(pageNumber - 1, pageSize);
-        return avatarRepository.findAll(pageRequest).getContent();
+    private static void runAfterCommit(StorageAction action, String description) {
+        AfterCommit.run(() -> {
+            try {
+                action.run();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not delete unreferenced avatar content {}", description, e);
+            }
+        });
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void invalidatePreviewsAfterCommit(Collection<Long> studentIds) {
+        List<Long> ids = List.copyOf(studentIds);
+        ids.forEach(this::evictPreview);
+        // A reader may reload the old row before this transaction commits, so evict again afterwards.
+        AfterCommit.run(() -> ids.forEach(this::evictPreview));
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.AVATAR, ids);
+    }
+
+    private void evictPreview(Long studentId) {
+        previewCache.invalidate(studentId);
+        try {
+            previewPackfile.invalidate(studentId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void evictAllPreviews() {
+        previewCache.invalidateAll();
+        try {
+            previewPackfile.invalidateAll();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String eTagOf(byte[] data) {
+        return "\"" + HexFormat.of().formatHex(sha256().digest(data), 0, 16) + "\"";
+    }
+
+    @Transactional(readOnly = true)
+    public CursorPage<AvatarView> findAllAvatars(String sort, String cursor, Integer limit) {
+        CursorPage<Avatar> page = avatarPager.page(sort, cursor, limit);
+        // The student stays an uninitialized proxy; reading its id does not load the row.
+        List<AvatarView> views = page.items().stream()
+                .map(avatar -> new AvatarView(avatar.getId(), avatar.getStudent().getId(),
+                        avatar.getFileSize(), avatar.getMediaType()))
+                .toList();
+        return new CursorPage<>(views, page.nextCursor());
     }
 }
@@ -0,0 +1,6 @@
+package ru.hogwarts.school.service;
+
+import java.awt.image.BufferedImage;
+
+record DecodedImage(BufferedImage image, String formatName, String mediaType) {
+}
@@ -0,0 +1,373 @@
+package ru.hogwarts.school.service;
+
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.cache.AfterCommit;
+import ru.hogwarts.school.model.CollectionVersion;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.repository.FacultyRepository;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Case-insensitive trie over faculty names and colors, for exact, prefix and fuzzy lookups. Each value is
+ * indexed whole and word by word, so "зап" finds "Огонь Запад". The trie is filled from the database on
+ * first use and then follows the writes made through {@link FacultyService} once they commit.
+ */
+@Component
+public class FacultySearchIndex {
+    static final int DEFAULT_LIMIT = 20;
+    static final int MAX_LIMIT = 100;
+
+    private static final int EXACT = 0;
+    private static final int PREFIX = 1;
+
+    private final FacultyRepository facultyRepository;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Node root = new Node();
+    private final Map<Long, Faculty> faculties = new HashMap<>();
+    private final Map<Long, Set<String>> tokens = new HashMap<>();
+    private boolean loaded;
+    // Starts anywhere, so a version from another instance or an earlier run is no use as a tag.
+    private long modifications = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE / 2);
+
+    public FacultySearchIndex(FacultyRepository facultyRepository) {
+        this.facultyRepository = facultyRepository;
+    }
+
+    /**
+     * Returns the faculties whose name or color equals the value, ignoring case.
+     */
+    public List<Faculty> findByNameOrColor(String value) {
+        String normalized = normalize(value);
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            Node node = root.find(normalized);
+            List<Faculty> found = new ArrayList<>();
+            if (node != null) {
+                for (long id : node.ids) {
+                    Faculty faculty = faculties.get(id);
+                    if (normalized.equals(normalize(faculty.getName())) || normalized.equals(normalize(faculty.getColor()))) {
+                        found.add(copyOf(faculty));
+                    }
+                }
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ranks exact word or value matches first, then prefix matches, then values within a small edit
+     * distance of the query; ties are broken by name.
+     */
+    public List<Faculty> search(String query, Integer limit) {
+        int max = limit == null ? DEFAULT_LIMIT : limit;
+        if (max < 1 || max > MAX_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_LIMIT);
+        }
+        String normalized = normalize(query);
+        if (normalized.isEmpty()) {
+            return List.of();
+        }
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            Map<Long, Integer> ranks = new HashMap<>();
+            Node node = root.find(normalized);
+            if (node != null) {
+                for (long id : node.ids) {
+                    ranks.put(id, EXACT);
+                }
+                collectPrefixed(node, max, ranks);
+            }
+            int maxEdits = normalized.length() <= 3 ? 0 : normalized.length() <= 6 ? 1 : 2;
+            if (maxEdits > 0) {
+                int[] firstRow = new int[normalized.length() + 1];
+                Arrays.setAll(firstRow, i -> i);
+                for (int i = 0; i < root.size; i++) {
+                    collectFuzzy(root.children[i], root.keys[i], firstRow, normalized, maxEdits, ranks);
+                }
+            }
+            return ranks.entrySet().stream()
+                    .map(entry -> Map.entry(entry.getValue(), faculties.get(entry.getKey())))
+                    .sorted(Comparator.<Map.Entry<Integer, Faculty>>comparingInt(Map.Entry::getKey)
+                            .thenComparing(entry -> entry.getValue().getName(), Comparator.nullsLast(Comparator.naturalOrder()))
+                            .thenComparing(entry -> entry.getValue().getId()))
+                    .limit(max)
+                    .map(entry -> copyOf(entry.getValue()))
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the version of what the trie holds; see {@link StudentNameIndex#getVersion()}.
+     */
+    public CollectionVersion getVersion() {
+        lock.readLock().lock();
+        try {
+            return new CollectionVersion(modifications);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void facultiesSaved(Collection<Faculty> saved) {
+        List<Faculty> copies = saved.stream().map(FacultySearchIndex::copyOf).toList();
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                modifications++;
+                if (loaded) {
+                    copies.forEach(this::put);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void facultiesDeleted(Collection<Long> ids) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                modifications++;
+                if (loaded) {
+                    ids.forEach(this::remove);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Drops everything so the next lookup reads the table again.
+     */
+    public void reset() {
+        lock.writeLock().lock();
+        try {
+            modifications++;
+            loaded = false;
+            root = new Node();
+            faculties.clear();
+            tokens.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Fills the trie from the database, reading again if a write committed while the rows were read.
+     */
+    private void ensureLoaded() {
+        while (true) {
+            long stamp;
+            lock.readLock().lock();
+            try {
+                if (loaded) {
+                    return;
+                }
+                stamp = modifications;
+            } finally {
+                lock.readLock().unlock();
+            }
+            List<Faculty> all = facultyRepository.findAll();
+            lock.writeLock().lock();
+            try {
+                if (loaded) {
+                    return;
+                }
+                if (stamp == modifications) {
+                    all.forEach(faculty -> put(copyOf(faculty)));
+                    loaded = true;
+                    return;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void put(Faculty faculty) {
+        remove(faculty.getId());
+        Set<String> words = tokensOf(faculty);
+        for (String word : words) {
+            root.insert(word, faculty.getId());
+        }
+        faculties.put(faculty.getId(), faculty);
+        tokens.put(faculty.getId(), words);
+    }
+
+    private void remove(Long id) {
+        Set<String> words = tokens.remove(id);
+        if (words != null) {
+            for (String word : words) {
+                root.remove(word, 0, id);
+            }
+            faculties.remove(id);
+        }
+    }
+
+    /**
+     * Walks the subtree breadth first, so shorter values come first, until enough faculties are found.
+     */
+    private static void collectPrefixed(Node start, int max, Map<Long, Integer> ranks) {
+        Queue<Node> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (!queue.isEmpty() && ranks.size() < max) {
+            Node node = queue.remove();
+            for (long id : node.ids) {
+                ranks.putIfAbsent(id, PREFIX);
+            }
+            queue.addAll(Arrays.asList(node.children).subList(0, node.size));
+        }
+    }
+
+    /**
+     * Computes one Levenshtein row per trie edge and prunes branches that are already too far away.
+     */
+    private static void collectFuzzy(Node node, char key, int[] previousRow, String query, int maxEdits,
+                                     Map<Long, Integer> ranks) {
+        int[] row = new int[previousRow.length];
+        row[0] = previousRow[0] + 1;
+        int best = row[0];
+        for (int i = 1; i < row.length; i++) {
+            int substitution = previousRow[i - 1] + (query.charAt(i - 1) == key ? 0 : 1);
+            row[i] = Math.min(substitution, Math.min(row[i - 1], previousRow[i]) + 1);
+            best = Math.min(best, row[i]);
+        }
+        int distance = row[row.length - 1];
+        if (distance <= maxEdits) {
+            for (long id : node.ids) {
+                ranks.merge(id, PREFIX + distance, Math::min);
+            }
+        }
+        if (best <= maxEdits) {
+            for (int i = 0; i < node.size; i++) {
+                collectFuzzy(node.children[i], node.keys[i], row, query, maxEdits, ranks);
+            }
+        }
+    }
+
+    private static Set<String> tokensOf(Faculty faculty) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String value : new String[]{faculty.getName(), faculty.getColor()}) {
+            String normalized = normalize(value);
+            if (normalized.isEmpty()) {
+                continue;
+            }
+            words.add(normalized);
+            for (String word : normalized.split(" ")) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        return String.join(" ", value.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")).trim();
+    }
+
+    private static Faculty copyOf(Faculty faculty) {
+        return new Faculty(faculty.getId(), faculty.getName(), faculty.getColor());
+    }
+
+    /**
+     * Children are kept in parallel arrays sorted by character, which is far smaller than a map per node.
+     */
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final long[] NO_IDS = new long[0];
+
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        int size;
+        long[] ids = NO_IDS;
+
+        Node find(String word) {
+            Node node = this;
+            for (int i = 0; i < word.length() && node != null; i++) {
+                node = node.child(word.charAt(i));
+            }
+            return node;
+        }
+
+        void insert(String word, long id) {
+            Node node = this;
+            for (int i = 0; i < word.length(); i++) {
+                char key = word.charAt(i);
+                Node child = node.child(key);
+                if (child == null) {
+                    child = node.addChild(key);
+                }
+                node = child;
+            }
+            node.ids = Arrays.copyOf(node.ids, node.ids.length + 1);
+            node.ids[node.ids.length - 1] = id;
+        }
+
+        /**
+         * Removes the id and prunes nodes left without ids or children; returns whether this node is empty.
+         */
+        boolean remove(String word, int depth, long id) {
+            if (depth == word.length()) {
+                ids = Arrays.stream(ids).filter(other -> other != id).toArray();
+            } else {
+                int index = indexOf(word.charAt(depth));
+                if (index >= 0 && children[index].remove(word, depth + 1, id)) {
+                    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+                    System.arraycopy(children, index + 1, children, index, size - index - 1);
+                    children[--size] = null;
+                }
+            }
+            return size == 0 && ids.length == 0;
+        }
+
+        private Node child(char key) {
+            int index = indexOf(key);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private Node addChild(char key) {
+            int index = -(Arrays.binarySearch(keys, 0, size, key) + 1);
+            if (size == keys.length) {
+                int capacity = Math.max(1, size * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(children, index, children, index + 1, size - index);
+            Node child = new Node();
+            keys[index] = key;
+            children[index] = child;
+            size++;
+            return child;
+        }
+
+        private int indexOf(char key) {
+            return Arrays.binarySearch(keys, 0, size, key);
+        }
+    }
+}
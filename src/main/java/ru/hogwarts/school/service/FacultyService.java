@@ -1,43 +1,235 @@
 package ru.hogwarts.school.service;
 
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.hogwarts.school.cache.CacheConfig;
+import ru.hogwarts.school.cache.CacheInvalidationBus;
+import ru.hogwarts.school.model.CollectionCounter;
+import ru.hogwarts.school.model.CollectionVersion;
+import ru.hogwarts.school.model.CursorPage;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.FacultyPatch;
+import ru.hogwarts.school.repository.CollectionCounterRepository;
 import ru.hogwarts.school.repository.FacultyRepository;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class FacultyService {
     private final FacultyRepository facultyRepository;
+    private final StudentReadModel studentReadModel;
+    private final StudentStatistics studentStatistics;
+    private final FacultySearchIndex facultySearchIndex;
+    private final CacheInvalidationBus cacheInvalidationBus;
+    private final VersionedUpdater versionedUpdater;
+    private final CollectionCounterRepository collectionCounterRepository;
+    private final KeysetPager<Faculty> pager;
 
-    public FacultyService(FacultyRepository facultyRepository) {
+    public FacultyService(FacultyRepository facultyRepository, StudentReadModel studentReadModel,
+                          StudentStatistics studentStatistics, FacultySearchIndex facultySearchIndex,
+                          CacheInvalidationBus cacheInvalidationBus, VersionedUpdater versionedUpdater,
+                          CollectionCounterRepository collectionCounterRepository) {
         this.facultyRepository = facultyRepository;
+        this.studentReadModel = studentReadModel;
+        this.studentStatistics = studentStatistics;
+        this.facultySearchIndex = facultySearchIndex;
+        this.cacheInvalidationBus = cacheInvalidationBus;
+        this.versionedUpdater = versionedUpdater;
+        this.collectionCounterRepository = collectionCounterRepository;
+        this.pager = new KeysetPager<>(facultyRepository,
+                Map.of("id", Faculty::getId, "name", Faculty::getName, "color", Faculty::getColor),
+                Faculty::getId);
+        cacheInvalidationBus.onRemoteChange(CacheInvalidationBus.Entity.FACULTY, this::facultiesChangedElsewhere);
+        cacheInvalidationBus.onMissedChanges(facultySearchIndex::reset);
     }
 
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.FACULTY_PAGES, CacheConfig.VERSIONS}, allEntries = true)
     public Faculty createFaculty(Faculty faculty) {
-        return facultyRepository.save(faculty);
+        Faculty created = facultyRepository.save(faculty);
+        collectionCounterRepository.bump(CollectionCounter.FACULTIES);
+        studentReadModel.facultiesSaved(List.of(created));
+        facultySearchIndex.facultiesSaved(List.of(created));
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.FACULTY, List.of(created.getId()));
+        return created;
     }
 
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.FACULTY_PAGES, CacheConfig.VERSIONS}, allEntries = true)
+    public List<Faculty> createFaculties(List<Faculty> faculties) {
+        List<Faculty> created = facultyRepository.saveAll(faculties);
+        collectionCounterRepository.bump(CollectionCounter.FACULTIES);
+        studentReadModel.facultiesSaved(created);
+        facultySearchIndex.facultiesSaved(created);
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.FACULTY, created.stream().map(Faculty::getId).toList());
+        return created;
+    }
+
+    @Cacheable(cacheNames = CacheConfig.FACULTIES, key = "#id", sync = true)
     public Faculty findFaculty(Long id) {
         return facultyRepository.findById(id).orElse(null);
     }
 
-    public Faculty editFaculty(Faculty faculty) {
-        if (facultyRepository.existsById(faculty.getId())) {
-            return facultyRepository.save(faculty);
+    /**
+     * Replaces every field of the faculty.
+     *
+     * @param expectedVersion the version the caller last read, or null to overwrite whatever is stored
+     * @return the updated faculty, or null if it does not exist
+     * @throws OptimisticLockingFailureException if the faculty changed since {@code expectedVersion}
+     */
+    @CacheEvict(cacheNames = {CacheConfig.FACULTIES, CacheConfig.FACULTY_PAGES, CacheConfig.STUDENTS,
+            CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS}, allEntries = true)
+    public Faculty editFaculty(Faculty faculty, Long expectedVersion) {
+        if (faculty.getId() == null) {
+            return null;
+        }
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", faculty.getName());
+        values.put("color", faculty.getColor());
+        return update(faculty.getId(), expectedVersion, values);
+    }
+
+    /**
+     * Changes only the fields the patch sets; same contract as {@link #editFaculty}.
+     */
+    @CacheEvict(cacheNames = {CacheConfig.FACULTIES, CacheConfig.FACULTY_PAGES, CacheConfig.STUDENTS,
+            CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS}, allEntries = true)
+    public Faculty patchFaculty(Long id, Long expectedVersion, FacultyPatch patch) {
+        Map<String, Object> values = new HashMap<>();
+        if (patch.name() != null) {
+            values.put("name", patch.name());
+        }
+        if (patch.color() != null) {
+            values.put("color", patch.color());
+        }
+        return update(id, expectedVersion, values);
+    }
+
+    /**
+     * Same as in {@link StudentService}: one statement under lock, committed with the counter bump, and the
+     * faculty read back after the commit.
+     */
+    private Faculty update(Long id, Long expectedVersion, Map<String, Object> values) {
+        if (versionedUpdater.update(Faculty.class, id, expectedVersion, values, CollectionCounter.FACULTIES) == 0) {
+            if (expectedVersion != null && facultyRepository.existsById(id)) {
+                throw new ObjectOptimisticLockingFailureException(Faculty.class, id);
+            }
+            return null;
+        }
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.FACULTY, List.of(id));
+        Faculty updated = facultyRepository.findById(id).orElse(null);
+        if (updated == null) {
+            return null;
+        }
+        studentReadModel.facultiesSaved(List.of(updated));
+        facultySearchIndex.facultiesSaved(List.of(updated));
+        studentStatistics.facultiesUpdated(List.of(updated));
+        return updated;
+    }
+
+    /**
+     * Updates all the faculties in one transaction, or none of them if any is missing.
+     *
+     * @return the updated faculties, or null if some id does not exist
+     */
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.FACULTIES, CacheConfig.FACULTY_PAGES, CacheConfig.STUDENTS,
+            CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS}, allEntries = true)
+    public List<Faculty> editFaculties(List<Faculty> faculties) {
+        Map<Long, Faculty> existing = new HashMap<>();
+        if (faculties.stream().noneMatch(faculty -> faculty.getId() == null)) {
+            for (Faculty faculty : facultyRepository.findAllById(faculties.stream().map(Faculty::getId).toList())) {
+                existing.put(faculty.getId(), faculty);
+            }
+        }
+        List<Faculty> edited = new ArrayList<>();
+        for (Faculty faculty : faculties) {
+            Faculty current = existing.get(faculty.getId());
+            if (current == null) {
+                return null;
+            }
+            current.setName(faculty.getName());
+            current.setColor(faculty.getColor());
+            edited.add(current);
         }
-        return null;
+        collectionCounterRepository.bump(CollectionCounter.FACULTIES);
+        studentReadModel.facultiesSaved(edited);
+        facultySearchIndex.facultiesSaved(edited);
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.FACULTY, edited.stream().map(Faculty::getId).toList());
+        return edited;
     }
 
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.FACULTIES, CacheConfig.FACULTY_PAGES, CacheConfig.STUDENTS,
+            CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS}, allEntries = true)
     public void deleteFaculty(Long id) {
         facultyRepository.deleteById(id);
+        collectionCounterRepository.bump(CollectionCounter.FACULTIES);
+        studentReadModel.facultiesDeleted(List.of(id));
+        facultySearchIndex.facultiesDeleted(List.of(id));
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.FACULTY, List.of(id));
+    }
+
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.FACULTIES, CacheConfig.FACULTY_PAGES, CacheConfig.STUDENTS,
+            CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS}, allEntries = true)
+    public void deleteFaculties(List<Long> ids) {
+        facultyRepository.deleteAll(facultyRepository.findAllById(ids));
+        collectionCounterRepository.bump(CollectionCounter.FACULTIES);
+        studentReadModel.facultiesDeleted(ids);
+        facultySearchIndex.facultiesDeleted(ids);
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.FACULTY, ids);
+    }
+
+    /**
+     * Brings the in-memory views up to date with faculties another instance wrote; a missing id was deleted.
+     */
+    private void facultiesChangedElsewhere(Collection<Long> ids) {
+        List<Faculty> found = facultyRepository.findAllById(ids);
+        Set<Long> deleted = new HashSet<>(ids);
+        found.forEach(faculty -> deleted.remove(faculty.getId()));
+        studentReadModel.facultiesSaved(found);
+        studentReadModel.facultiesDeleted(deleted);
+        facultySearchIndex.facultiesSaved(found);
+        facultySearchIndex.facultiesDeleted(deleted);
     }
 
-    public List<Faculty> findAllFaculties() {
-        return facultyRepository.findAll();
+    /**
+     * Returns the version of the faculty table, which changes whenever any faculty does.
+     */
+    @Cacheable(cacheNames = CacheConfig.VERSIONS, key = "'faculties'", sync = true)
+    public CollectionVersion getFacultiesVersion() {
+        return collectionCounterRepository.findVersion(CollectionCounter.FACULTIES);
+    }
+
+    /**
+     * Returns the version of the search index that lookups by name or color are answered from.
+     */
+    public CollectionVersion getSearchIndexVersion() {
+        return facultySearchIndex.getVersion();
+    }
+
+    @Cacheable(cacheNames = CacheConfig.FACULTY_PAGES, key = "T(java.util.Arrays).asList(#sort, #cursor, #limit)",
+            sync = true)
+    public CursorPage<Faculty> findAllFaculties(String sort, String cursor, Integer limit) {
+        return pager.page(sort, cursor, limit);
     }
 
     public List<Faculty> findByFacultyOrColor(String search) {
-        return facultyRepository.findByNameIgnoreCaseOrColorIgnoreCase(search, search);
+        return facultySearchIndex.findByNameOrColor(search);
+    }
+
+    public List<Faculty> searchFaculties(String query, Integer limit) {
+        return facultySearchIndex.search(query, limit);
     }
 }
@@ -0,0 +1,18 @@
+package ru.hogwarts.school.service;
+
+import ru.hogwarts.school.model.AvatarPreview;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An imported file whose content was stored before its batch is saved. {@code source} reads the file again,
+ * for when the stored content was deleted in between.
+ */
+record ImportedContent(String contentHash, long size, String mediaType, List<AvatarPreview> previews,
+                       Source source) {
+
+    interface Source {
+        byte[] read() throws IOException;
+    }
+}
@@ -0,0 +1,64 @@
+package ru.hogwarts.school.service;
+
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import ru.hogwarts.school.model.CursorPage;
+import ru.hogwarts.school.repository.KeysetSpecification;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keyset pagination over an entity for a fixed set of sort keys. A sort is a key name, optionally prefixed
+ * with '-' for descending order; the cursor remembers it, so later pages keep the order they started with.
+ */
+final class KeysetPager<E> {
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 1000;
+
+    private final JpaSpecificationExecutor<E> repository;
+    private final Map<String, Function<E, Comparable<?>>> sortKeys;
+    private final Function<E, Long> idOf;
+    private final List<String> fetch;
+
+    /**
+     * @param fetch associations loaded with the page in the same statement, so rows do not load them one by one
+     */
+    KeysetPager(JpaSpecificationExecutor<E> repository, Map<String, Function<E, Comparable<?>>> sortKeys,
+                Function<E, Long> idOf, String... fetch) {
+        this.repository = repository;
+        this.sortKeys = sortKeys;
+        this.idOf = idOf;
+        this.fetch = List.of(fetch);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the sort key is unknown or the cursor is malformed
+     */
+    CursorPage<E> page(String sort, String cursor, Integer limit) {
+        PageCursor after = cursor == null ? null : PageCursor.decode(cursor);
+        String order = after != null ? after.sort() : sort == null ? "id" : sort;
+        boolean descending = order.startsWith("-");
+        String key = descending ? order.substring(1) : order;
+        Function<E, Comparable<?>> sortKey = sortKeys.get(key);
+        if (sortKey == null) {
+            throw new IllegalArgumentException("Unknown sort key " + key);
+        }
+        int size = limit == null ? DEFAULT_LIMIT : Math.max(1, Math.min(limit, MAX_LIMIT));
+
+        // One extra row tells whether there is a next page without a count query.
+        List<E> rows = repository.findBy(
+                KeysetSpecification.<E>ordered(key, descending,
+                        after == null ? null : (Comparable<?>) after.value(),
+                        after == null ? null : after.id()),
+                query -> (fetch.isEmpty() ? query : query.project(fetch)).limit(size + 1).all());
+        if (rows.size() <= size) {
+            return new CursorPage<>(rows, null);
+        }
+        List<E> items = rows.subList(0, size);
+        E last = items.get(size - 1);
+        Comparable<?> value = sortKey.apply(last);
+        PageCursor next = new PageCursor(order, value == null ? "" : value, idOf.apply(last));
+        return new CursorPage<>(List.copyOf(items), next.encode());
+    }
+}
@@ -0,0 +1,71 @@
+package ru.hogwarts.school.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.storage.AvatarStorage;
+import ru.hogwarts.school.storage.AvatarStorageConfig;
+import ru.hogwarts.school.storage.Compactable;
+import ru.hogwarts.school.storage.PreviewPackfile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites the append-only packs in the background once replaced records take up too much of them: the preview
+ * pack, and the avatar storages that are configured as packfiles.
+ */
+@Component
+public class PackCompactor {
+    private static final Logger log = LoggerFactory.getLogger(PackCompactor.class);
+
+    private final List<Compactable> packs = new ArrayList<>();
+    private final double garbageRatio;
+    private final ScheduledExecutorService executor;
+
+    public PackCompactor(PreviewPackfile previewPackfile,
+                         @Qualifier(AvatarStorageConfig.ORIGINALS) AvatarStorage originalStorage,
+                         @Qualifier(AvatarStorageConfig.PREVIEWS) AvatarStorage previewStorage,
+                         @Value("${avatar.pack.compact-interval-seconds:300}") long intervalSeconds,
+                         @Value("${avatar.pack.compact-garbage-ratio:0.5}") double garbageRatio) {
+        packs.add(previewPackfile);
+        for (AvatarStorage storage : List.of(originalStorage, previewStorage)) {
+            if (storage instanceof Compactable pack) {
+                packs.add(pack);
+            }
+        }
+        this.garbageRatio = garbageRatio;
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "pack-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::compactIfNeeded, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    void compactIfNeeded() {
+        for (Compactable pack : packs) {
+            try {
+                if (pack.getGarbageRatio() >= garbageRatio) {
+                    long started = System.nanoTime();
+                    pack.compact();
+                    log.info("Compacted {} in {} ms", pack, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Compaction of {} failed", pack, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,53 @@
+package ru.hogwarts.school.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position after the last row of a page: the sort it was produced with and that row's sort value and id.
+ * Clients only see the encoded token, so the format can change without breaking them.
+ */
+record PageCursor(String sort, Object value, long id) {
+
+    String encode() {
+        String raw = sort + "\n" + id + "\n" + typeOf(value) + value;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static PageCursor decode(String token) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor", e);
+        }
+        String[] parts = raw.split("\n", 3);
+        if (parts.length != 3 || parts[2].isEmpty()) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        String value = parts[2].substring(1);
+        try {
+            return new PageCursor(parts[0], switch (parts[2].charAt(0)) {
+                case 'l' -> Long.valueOf(value);
+                case 'i' -> Integer.valueOf(value);
+                case 's' -> value;
+                default -> throw new IllegalArgumentException("Malformed cursor");
+            }, Long.parseLong(parts[1]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cursor", e);
+        }
+    }
+
+    private static char typeOf(Object value) {
+        if (value instanceof Long) {
+            return 'l';
+        }
+        if (value instanceof Integer) {
+            return 'i';
+        }
+        if (value instanceof String) {
+            return 's';
+        }
+        throw new IllegalArgumentException("Unsupported cursor value " + value);
+    }
+}
@@ -0,0 +1,78 @@
+package ru.hogwarts.school.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.model.PreviewCacheStats;
+import ru.hogwarts.school.model.PreviewContent;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Component
+public class PreviewCache {
+    private final long maxBytes;
+    private final LinkedHashMap<Key, PreviewContent> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public PreviewCache(@Value("${avatar.preview.cache-max-bytes:16777216}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized PreviewContent get(Key key) {
+        PreviewContent content = entries.get(key);
+        if (content == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return content;
+    }
+
+    public synchronized void put(Key key, PreviewContent content) {
+        long size = content.data().length;
+        if (size > maxBytes) {
+            return;
+        }
+        PreviewContent previous = entries.put(key, content);
+        if (previous != null) {
+            bytes -= previous.data().length;
+        }
+        bytes += size;
+        Iterator<Map.Entry<Key, PreviewContent>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().data().length;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidate(Long studentId) {
+        Iterator<Map.Entry<Key, PreviewContent>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, PreviewContent> entry = it.next();
+            if (entry.getKey().studentId().equals(studentId)) {
+                bytes -= entry.getValue().data().length;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized PreviewCacheStats getStats() {
+        return new PreviewCacheStats(entries.size(), bytes, maxBytes, hits, misses, evictions);
+    }
+
+    /**
+     * Previews as stored are served from the preview pack, so the cache only holds transcoded variants.
+     */
+    public record Key(Long studentId, int width, String mediaType) {
+    }
+}
@@ -0,0 +1,179 @@
+package ru.hogwarts.school.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+@Component
+public class PreviewRenderer {
+    private static final Set<String> WEB_MEDIA_TYPES =
+            Set.of(MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE, MediaType.IMAGE_GIF_VALUE);
+
+    private final int[] widths;
+    private final float jpegQuality;
+    private final long maxPixels;
+
+    public PreviewRenderer(@Value("${avatar.preview.widths:64,128,256,512}") int[] widths,
+                           @Value("${avatar.preview.jpeg-quality:0.8}") float jpegQuality,
+                           @Value("${avatar.preview.max-pixels:40000000}") long maxPixels) {
+        this.widths = Arrays.stream(widths).sorted().distinct().toArray();
+        this.jpegQuality = jpegQuality;
+        this.maxPixels = maxPixels;
+    }
+
+    public int[] getWidths() {
+        return widths.clone();
+    }
+
+    /**
+     * Picks the smallest pre-rendered width that is at least the requested one.
+     */
+    public int bucketFor(Integer requestedWidth) {
+        int wanted = requestedWidth == null ? 100 : requestedWidth;
+        for (int width : widths) {
+            if (width >= wanted) {
+                return width;
+            }
+        }
+        return widths[widths.length - 1];
+    }
+
+    DecodedImage decode(InputStream is) throws IOException {
+        // A memory-backed stream keeps ImageIO from spooling the upload into yet another temp file.
+        try (ImageInputStream iis = new MemoryCacheImageInputStream(is)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                BufferedImage image = reader.read(0, readParamFor(reader));
+                String mediaType = reader.getOriginatingProvider().getMIMETypes()[0];
+                if (!WEB_MEDIA_TYPES.contains(mediaType)) {
+                    // Formats such as BMP would make huge previews, so those are rendered as PNG instead.
+                    return new DecodedImage(image, "png", MediaType.IMAGE_PNG_VALUE);
+                }
+                return new DecodedImage(image, reader.getFormatName(), mediaType);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reads only the header to reject decompression bombs, then subsamples rows and columns so the decoded
+     * raster is just large enough for the widest preview instead of the full resolution.
+     */
+    private ImageReadParam readParamFor(ImageReader reader) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        if (width <= 0 || height <= 0 || (long) width * height > maxPixels) {
+            throw new IOException("Image of " + width + "x" + height + " pixels exceeds the limit of "
+                    + maxPixels + " pixels");
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        int subsampling = Math.max(1, width / widths[widths.length - 1]);
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        return param;
+    }
+
+    /**
+     * Renders every configured width, largest first, each one scaled down from the previous step.
+     */
+    Map<Integer, byte[]> renderPyramid(DecodedImage decoded) throws IOException {
+        Map<Integer, byte[]> previews = new LinkedHashMap<>();
+        BufferedImage source = decoded.image();
+        for (int i = widths.length - 1; i >= 0; i--) {
+            BufferedImage scaled = scale(source, widths[i], decoded.formatName());
+            previews.put(widths[i], encode(scaled, decoded.formatName()));
+            source = scaled;
+        }
+        return previews;
+    }
+
+    byte[] transcode(byte[] data, String targetMediaType) throws IOException {
+        String formatName = formatNameOf(targetMediaType);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        if (image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        return encode(copy(image, image.getWidth(), image.getHeight(), formatName), formatName);
+    }
+
+    private BufferedImage scale(BufferedImage image, int width, String formatName) {
+        // Never upscale; narrow originals keep their own width for the larger buckets.
+        int targetWidth = Math.min(width, image.getWidth());
+        int targetHeight = Math.max(1, (int) ((long) image.getHeight() * targetWidth / image.getWidth()));
+        return copy(image, targetWidth, targetHeight, formatName);
+    }
+
+    private BufferedImage copy(BufferedImage image, int width, int height, String formatName) {
+        boolean alpha = image.getColorModel().hasAlpha() && !isJpeg(formatName);
+        BufferedImage target = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics2D = target.createGraphics();
+        graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics2D.drawImage(image, 0, 0, width, height, null);
+        graphics2D.dispose();
+        return target;
+    }
+
+    private byte[] encode(BufferedImage image, String formatName) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
+        if (!writers.hasNext()) {
+            throw new IOException("No writer for " + formatName);
+        }
+        ImageWriter writer = writers.next();
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+             ImageOutputStream ios = new MemoryCacheImageOutputStream(baos)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (isJpeg(formatName) && param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+            ios.flush();
+            return baos.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    static String formatNameOf(String mediaType) {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByMIMEType(mediaType);
+        if (!readers.hasNext()) {
+            throw new IllegalArgumentException("Unsupported media type " + mediaType);
+        }
+        return readers.next().getOriginatingProvider().getFormatNames()[0];
+    }
+
+    private static boolean isJpeg(String formatName) {
+        return "jpeg".equalsIgnoreCase(formatName) || "jpg".equalsIgnoreCase(formatName);
+    }
+}
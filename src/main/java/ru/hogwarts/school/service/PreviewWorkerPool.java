@@ -0,0 +1,102 @@
+package ru.hogwarts.school.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.model.PreviewWorkerStats;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+@Component
+public class PreviewWorkerPool {
+    private static final Logger log = LoggerFactory.getLogger(PreviewWorkerPool.class);
+
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder ranOnCaller = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder processingNanos = new LongAdder();
+    private final AtomicLong maxProcessingNanos = new AtomicLong();
+
+    public PreviewWorkerPool(@Value("${avatar.preview.workers:2}") int workers,
+                             @Value("${avatar.preview.queue-capacity:64}") int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory(),
+                (task, pool) -> {
+                    if (pool.isShutdown()) {
+                        rejected.increment();
+                        log.warn("Preview worker pool is shut down, dropping a preview task");
+                        return;
+                    }
+                    // Queue is full: push back on the uploader instead of dropping the preview. The task commits
+                    // its writes in transactions of its own, so running it on the uploader's thread is safe.
+                    ranOnCaller.increment();
+                    task.run();
+                });
+    }
+
+    public void submit(Runnable task) {
+        long enqueuedAt = System.nanoTime();
+        executor.execute(() -> {
+            long startedAt = System.nanoTime();
+            queueWaitNanos.add(startedAt - enqueuedAt);
+            try {
+                task.run();
+                completed.increment();
+            } catch (RuntimeException e) {
+                failed.increment();
+                log.warn("Preview generation failed", e);
+            } finally {
+                long took = System.nanoTime() - startedAt;
+                processingNanos.add(took);
+                maxProcessingNanos.accumulateAndGet(took, Math::max);
+            }
+        });
+    }
+
+    public PreviewWorkerStats getStats() {
+        long done = completed.sum() + failed.sum();
+        return new PreviewWorkerStats(
+                executor.getQueue().size(),
+                queueCapacity,
+                executor.getActiveCount(),
+                completed.sum(),
+                failed.sum(),
+                ranOnCaller.sum(),
+                rejected.sum(),
+                done == 0 ? 0 : toMillis(queueWaitNanos.sum()) / done,
+                done == 0 ? 0 : toMillis(processingNanos.sum()) / done,
+                toMillis(maxProcessingNanos.get()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "preview-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,252 @@
+package ru.hogwarts.school.service;
+
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.cache.AfterCommit;
+import ru.hogwarts.school.model.CollectionVersion;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentName;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Trigram inverted index over student names. Every word is padded the way pg_trgm pads it, two spaces in
+ * front and one behind, so short queries still match the start of words. A name matches when it shares
+ * at least half of the query's trigrams and is ranked by that share, then by trigram similarity. The
+ * index is filled from the database on first use and then follows the writes made through
+ * {@link StudentService} once they commit.
+ */
+@Component
+public class StudentNameIndex {
+    static final int DEFAULT_LIMIT = 20;
+    static final int MAX_LIMIT = 100;
+
+    private final StudentRepository studentRepository;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Posting> postings = new HashMap<>();
+    private final Map<Long, long[]> gramsById = new HashMap<>();
+    private boolean loaded;
+    // Starts anywhere, so a version from another instance or an earlier run is no use as a tag.
+    private long modifications = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE / 2);
+
+    public StudentNameIndex(StudentRepository studentRepository) {
+        this.studentRepository = studentRepository;
+    }
+
+    /**
+     * Returns the ids of the best matching students, best first.
+     */
+    public List<Long> search(String query, Integer limit) {
+        int max = limit == null ? DEFAULT_LIMIT : limit;
+        if (max < 1 || max > MAX_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_LIMIT);
+        }
+        long[] queryGrams = gramsOf(query);
+        if (queryGrams.length == 0) {
+            return List.of();
+        }
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            Map<Long, Integer> shared = new HashMap<>();
+            for (long gram : queryGrams) {
+                Posting posting = postings.get(gram);
+                if (posting != null) {
+                    for (int i = 0; i < posting.size; i++) {
+                        shared.merge(posting.ids[i], 1, Integer::sum);
+                    }
+                }
+            }
+            return shared.entrySet().stream()
+                    .filter(entry -> entry.getValue() * 2 >= queryGrams.length)
+                    .map(entry -> new Match(entry.getKey(), entry.getValue(),
+                            (double) entry.getValue() / (queryGrams.length + gramsById.get(entry.getKey()).length - entry.getValue())))
+                    .sorted(Comparator.comparingInt(Match::shared).reversed()
+                            .thenComparing(Comparator.comparingDouble(Match::similarity).reversed())
+                            .thenComparingLong(Match::id))
+                    .limit(max)
+                    .map(Match::id)
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the version of what the index holds. It changes once a write is applied, which is after the
+     * table's own counter, so results from the index are tagged by it.
+     */
+    public CollectionVersion getVersion() {
+        lock.readLock().lock();
+        try {
+            return new CollectionVersion(modifications);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void studentsSaved(Collection<Student> students) {
+        List<StudentName> names = students.stream().map(student -> new StudentName(student.getId(), student.getName())).toList();
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                modifications++;
+                if (loaded) {
+                    names.forEach(this::put);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void studentsDeleted(Collection<Long> ids) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                modifications++;
+                if (loaded) {
+                    ids.forEach(this::remove);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Drops everything so the next search reads the table again.
+     */
+    public void reset() {
+        lock.writeLock().lock();
+        try {
+            modifications++;
+            loaded = false;
+            postings.clear();
+            gramsById.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Fills the index from the database, reading again if a write committed while the rows were read.
+     */
+    private void ensureLoaded() {
+        while (true) {
+            long stamp;
+            lock.readLock().lock();
+            try {
+                if (loaded) {
+                    return;
+                }
+                stamp = modifications;
+            } finally {
+                lock.readLock().unlock();
+            }
+            List<StudentName> names = studentRepository.findAllNames();
+            lock.writeLock().lock();
+            try {
+                if (loaded) {
+                    return;
+                }
+                if (stamp == modifications) {
+                    names.forEach(this::put);
+                    loaded = true;
+                    return;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void put(StudentName student) {
+        remove(student.id());
+        long[] grams = gramsOf(student.name());
+        for (long gram : grams) {
+            postings.computeIfAbsent(gram, key -> new Posting()).add(student.id());
+        }
+        gramsById.put(student.id(), grams);
+    }
+
+    private void remove(Long id) {
+        long[] grams = gramsById.remove(id);
+        if (grams == null) {
+            return;
+        }
+        for (long gram : grams) {
+            Posting posting = postings.get(gram);
+            if (posting != null && posting.remove(id) == 0) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * Returns the distinct trigrams of the text, each packed as three 16-bit chars into a long.
+     */
+    static long[] gramsOf(String text) {
+        if (text == null) {
+            return new long[0];
+        }
+        Set<Long> grams = new HashSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            String padded = "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                grams.add(((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2));
+            }
+        }
+        long[] packed = grams.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(packed);
+        return packed;
+    }
+
+    private record Match(long id, int shared, double similarity) {
+    }
+
+    /**
+     * Ids sorted ascending; ids mostly grow, so adding is usually an append.
+     */
+    private static final class Posting {
+        long[] ids = new long[2];
+        int size;
+
+        void add(long id) {
+            int index = size == 0 || ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0 && index < size) {
+                return;
+            }
+            int insertAt = index >= 0 ? index : -(index + 1);
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+            ids[insertAt] = id;
+            size++;
+        }
+
+        int remove(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+                size--;
+            }
+            return size;
+        }
+    }
+}
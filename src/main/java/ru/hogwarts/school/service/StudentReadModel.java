@@ -0,0 +1,398 @@
+package ru.hogwarts.school.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.cache.AfterCommit;
+import ru.hogwarts.school.model.CollectionVersion;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In-memory copy of the students for age range and faculty queries. Students are held column-wise in
+ * primitive arrays sorted by id, with an index of positions sorted by age and a posting list of positions
+ * per faculty. Every write publishes a new immutable snapshot, so readers never lock. Writes made through
+ * {@link StudentService} and {@link FacultyService} are applied once their transaction commits; writes that
+ * bypass them are not seen, so the model suits a single application instance owning the tables.
+ */
+@Component
+public class StudentReadModel {
+    private static final long NO_FACULTY = 0;
+
+    private final StudentRepository studentRepository;
+    private final FacultyRepository facultyRepository;
+    private final boolean enabled;
+
+    private volatile Snapshot snapshot;
+    // Starts anywhere, so a version from another instance or an earlier run is no use as a tag.
+    private long modifications = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE / 2);
+
+    public StudentReadModel(StudentRepository studentRepository,
+                            FacultyRepository facultyRepository,
+                            @Value("${student.read-model.enabled:false}") boolean enabled) {
+        this.studentRepository = studentRepository;
+        this.facultyRepository = facultyRepository;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the students aged {@code minAge} to {@code maxAge} inclusive, ordered by age and then id.
+     */
+    public List<Student> findByAgeBetween(int minAge, int maxAge) {
+        Snapshot current = current();
+        int from = lowerBound(current.sortedAges, minAge);
+        int to = maxAge == Integer.MAX_VALUE ? current.sortedAges.length : lowerBound(current.sortedAges, maxAge + 1);
+        List<Student> students = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            students.add(current.student(current.byAge[i]));
+        }
+        return students;
+    }
+
+    /**
+     * Returns the students of the faculty ordered by id.
+     */
+    public List<Student> findByFacultyId(Long facultyId) {
+        Snapshot current = current();
+        int[] positions = facultyId == null ? null : current.byFaculty.get(facultyId);
+        if (positions == null) {
+            return List.of();
+        }
+        List<Student> students = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            students.add(current.student(position));
+        }
+        return students;
+    }
+
+    /**
+     * Returns the version of the snapshot queries are answered from. A write reaches the model only after
+     * it commits, later than the table counters change, so lists read here are tagged by this instead.
+     */
+    public CollectionVersion getVersion() {
+        return new CollectionVersion(current().version());
+    }
+
+    public void studentsSaved(Collection<Student> students) {
+        afterCommitIfEnabled(() -> apply(students, List.of(), List.of(), List.of()));
+    }
+
+    public void studentsDeleted(Collection<Long> ids) {
+        afterCommitIfEnabled(() -> apply(List.of(), ids, List.of(), List.of()));
+    }
+
+    public void facultiesSaved(Collection<Faculty> faculties) {
+        afterCommitIfEnabled(() -> apply(List.of(), List.of(), faculties, List.of()));
+    }
+
+    public void facultiesDeleted(Collection<Long> ids) {
+        afterCommitIfEnabled(() -> apply(List.of(), List.of(), List.of(), ids));
+    }
+
+    /**
+     * Drops the snapshot so the next query reads both tables again.
+     */
+    public synchronized void reset() {
+        modifications++;
+        snapshot = null;
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        return current != null ? current : load();
+    }
+
+    /**
+     * Reads both tables and publishes them, unless a write committed meanwhile and may be missing from what
+     * was read, in which case it reads again.
+     */
+    private Snapshot load() {
+        while (true) {
+            long stamp;
+            synchronized (this) {
+                if (snapshot != null) {
+                    return snapshot;
+                }
+                stamp = modifications;
+            }
+            List<Student> students = studentRepository.findAll();
+            List<Faculty> faculties = facultyRepository.findAll();
+            synchronized (this) {
+                if (stamp == modifications) {
+                    Map<Long, Faculty> facultiesById = new HashMap<>();
+                    faculties.forEach(faculty -> facultiesById.put(faculty.getId(), copyOf(faculty)));
+                    List<Student> sorted = new ArrayList<>(students);
+                    sorted.sort(Comparator.comparing(Student::getId));
+                    snapshot = Snapshot.of(Columns.of(sorted), facultiesById, modifications);
+                    return snapshot;
+                }
+            }
+        }
+    }
+
+    private synchronized void apply(Collection<Student> savedStudents, Collection<Long> deletedStudents,
+                                    Collection<Faculty> savedFaculties, Collection<Long> deletedFaculties) {
+        modifications++;
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        Map<Long, Faculty> faculties = current.faculties;
+        if (!savedFaculties.isEmpty() || !deletedFaculties.isEmpty()) {
+            faculties = new HashMap<>(faculties);
+            for (Faculty faculty : savedFaculties) {
+                faculties.put(faculty.getId(), copyOf(faculty));
+            }
+            deletedFaculties.forEach(faculties::remove);
+        }
+        // Upserts and deletes are sorted by id and merged into the id-ordered columns in one pass, noting where
+        // each kept student moved to and where the saved ones landed.
+        TreeMap<Long, Student> changes = new TreeMap<>();
+        savedStudents.forEach(student -> changes.put(student.getId(), student));
+        deletedStudents.forEach(id -> changes.put(id, null));
+        Columns columns = new Columns(current.ids.length + changes.size());
+        int[] moved = new int[current.ids.length];
+        int[] added = new int[savedStudents.size()];
+        int addedCount = 0;
+        int i = 0;
+        for (Map.Entry<Long, Student> change : changes.entrySet()) {
+            long id = change.getKey();
+            while (i < current.ids.length && current.ids[i] < id) {
+                moved[i] = columns.size;
+                columns.add(current, i++);
+            }
+            if (i < current.ids.length && current.ids[i] == id) {
+                moved[i++] = -1;
+            }
+            if (change.getValue() != null) {
+                added[addedCount++] = columns.size;
+                columns.add(change.getValue());
+            }
+        }
+        while (i < current.ids.length) {
+            moved[i] = columns.size;
+            columns.add(current, i++);
+        }
+        snapshot = current.updated(columns, moved, Arrays.copyOf(added, addedCount), faculties, modifications);
+    }
+
+    private void afterCommitIfEnabled(Runnable action) {
+        if (enabled) {
+            AfterCommit.run(action);
+        }
+    }
+
+    private static int lowerBound(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static Faculty copyOf(Faculty faculty) {
+        return new Faculty(faculty.getId(), faculty.getName(), faculty.getColor());
+    }
+
+    /**
+     * Columns indexed by position in id order; {@code byAge} lists positions by age and then id, with
+     * {@code sortedAges} holding the matching ages for binary search.
+     */
+    private record Snapshot(long[] ids, String[] names, int[] ages, long[] facultyIds,
+                            int[] byAge, int[] sortedAges, Map<Long, int[]> byFaculty,
+                            Map<Long, Faculty> faculties, long version) {
+
+        static Snapshot of(Columns columns, Map<Long, Faculty> faculties, long version) {
+            int size = columns.size;
+            long[] ids = Arrays.copyOf(columns.ids, size);
+            String[] names = Arrays.copyOf(columns.names, size);
+            int[] ages = Arrays.copyOf(columns.ages, size);
+            long[] facultyIds = Arrays.copyOf(columns.facultyIds, size);
+
+            // Age in the high half and position in the low half sort as one primitive key.
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = ((long) ages[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            int[] byAge = new int[size];
+            int[] sortedAges = new int[size];
+            for (int i = 0; i < size; i++) {
+                byAge[i] = (int) keys[i];
+                sortedAges[i] = (int) (keys[i] >> 32);
+            }
+
+            Map<Long, Integer> facultySizes = new HashMap<>();
+            for (long facultyId : facultyIds) {
+                if (facultyId != NO_FACULTY) {
+                    facultySizes.merge(facultyId, 1, Integer::sum);
+                }
+            }
+            Map<Long, int[]> byFaculty = new HashMap<>();
+            Map<Long, Integer> filled = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                if (facultyIds[i] != NO_FACULTY) {
+                    int[] postings = byFaculty.computeIfAbsent(facultyIds[i], id -> new int[facultySizes.get(id)]);
+                    postings[filled.merge(facultyIds[i], 1, Integer::sum) - 1] = i;
+                }
+            }
+            return new Snapshot(ids, names, ages, facultyIds, byAge, sortedAges, Map.copyOf(byFaculty),
+                    Map.copyOf(faculties), version);
+        }
+
+        /**
+         * Builds the next snapshot from this one without sorting it again. Positions keep id order, so the
+         * kept students keep their order by age and in their faculty; only the added ones are sorted, and
+         * they are merged in.
+         *
+         * @param moved the new position of each student here, or -1 if it was deleted or saved again
+         * @param added the positions of the saved students, ascending
+         */
+        Snapshot updated(Columns columns, int[] moved, int[] added, Map<Long, Faculty> faculties, long version) {
+            int size = columns.size;
+            long[] ids = Arrays.copyOf(columns.ids, size);
+            String[] names = Arrays.copyOf(columns.names, size);
+            int[] ages = Arrays.copyOf(columns.ages, size);
+            long[] facultyIds = Arrays.copyOf(columns.facultyIds, size);
+
+            long[] addedKeys = new long[added.length];
+            for (int i = 0; i < added.length; i++) {
+                addedKeys[i] = ((long) ages[added[i]] << 32) | added[i];
+            }
+            Arrays.sort(addedKeys);
+            int[] byAge = new int[size];
+            int[] sortedAges = new int[size];
+            int filled = 0;
+            int next = 0;
+            for (int i = 0; i < this.byAge.length; i++) {
+                int position = moved[this.byAge[i]];
+                if (position < 0) {
+                    continue;
+                }
+                long key = ((long) this.sortedAges[i] << 32) | position;
+                for (; next < addedKeys.length && addedKeys[next] < key; next++, filled++) {
+                    byAge[filled] = (int) addedKeys[next];
+                    sortedAges[filled] = (int) (addedKeys[next] >> 32);
+                }
+                byAge[filled] = position;
+                sortedAges[filled] = this.sortedAges[i];
+                filled++;
+            }
+            for (; next < addedKeys.length; next++, filled++) {
+                byAge[filled] = (int) addedKeys[next];
+                sortedAges[filled] = (int) (addedKeys[next] >> 32);
+            }
+
+            Map<Long, List<Integer>> addedByFaculty = new HashMap<>();
+            for (int position : added) {
+                if (facultyIds[position] != NO_FACULTY) {
+                    addedByFaculty.computeIfAbsent(facultyIds[position], id -> new ArrayList<>()).add(position);
+                }
+            }
+            Map<Long, int[]> byFaculty = new HashMap<>();
+            for (Map.Entry<Long, int[]> postings : this.byFaculty.entrySet()) {
+                List<Integer> joined = addedByFaculty.remove(postings.getKey());
+                int[] merged = merge(postings.getValue(), moved, joined == null ? List.of() : joined);
+                if (merged.length > 0) {
+                    byFaculty.put(postings.getKey(), merged);
+                }
+            }
+            addedByFaculty.forEach((facultyId, positions) ->
+                    byFaculty.put(facultyId, positions.stream().mapToInt(Integer::intValue).toArray()));
+            return new Snapshot(ids, names, ages, facultyIds, byAge, sortedAges, Map.copyOf(byFaculty),
+                    Map.copyOf(faculties), version);
+        }
+
+        /**
+         * Merges the kept postings, moved to their new positions, with the added ones; both lists ascend.
+         */
+        private static int[] merge(int[] postings, int[] moved, List<Integer> added) {
+            int[] merged = new int[postings.length + added.size()];
+            int filled = 0;
+            int next = 0;
+            for (int old : postings) {
+                int position = moved[old];
+                if (position < 0) {
+                    continue;
+                }
+                while (next < added.size() && added.get(next) < position) {
+                    merged[filled++] = added.get(next++);
+                }
+                merged[filled++] = position;
+            }
+            while (next < added.size()) {
+                merged[filled++] = added.get(next++);
+            }
+            return filled == merged.length ? merged : Arrays.copyOf(merged, filled);
+        }
+
+        Student student(int position) {
+            Faculty faculty = facultyIds[position] == NO_FACULTY ? null : faculties.get(facultyIds[position]);
+            return new Student(ids[position], names[position], ages[position], faculty);
+        }
+    }
+
+    /**
+     * Columns filled in id order that a snapshot is built from.
+     */
+    private static class Columns {
+        long[] ids;
+        String[] names;
+        int[] ages;
+        long[] facultyIds;
+        int size;
+
+        Columns(int capacity) {
+            ids = new long[capacity];
+            names = new String[capacity];
+            ages = new int[capacity];
+            facultyIds = new long[capacity];
+        }
+
+        static Columns of(List<Student> students) {
+            Columns columns = new Columns(students.size());
+            students.forEach(columns::add);
+            return columns;
+        }
+
+        void add(Student student) {
+            // Only the id is read, so a lazy faculty is never initialized.
+            add(student.getId(), student.getName(), student.getAge(),
+                    student.getFaculty() == null ? NO_FACULTY : student.getFaculty().getId());
+        }
+
+        void add(Snapshot snapshot, int position) {
+            add(snapshot.ids[position], snapshot.names[position], snapshot.ages[position],
+                    snapshot.facultyIds[position]);
+        }
+
+        private void add(long id, String name, int age, long facultyId) {
+            ids[size] = id;
+            names[size] = name;
+            ages[size] = age;
+            facultyIds[size] = facultyId;
+            size++;
+        }
+    }
+}
@@ -1,60 +1,374 @@
 package ru.hogwarts.school.service;
 
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.hogwarts.school.cache.CacheConfig;
+import ru.hogwarts.school.cache.CacheInvalidationBus;
+import ru.hogwarts.school.model.CollectionCounter;
+import ru.hogwarts.school.model.CollectionVersion;
+import ru.hogwarts.school.model.CursorPage;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.FacultyStudentStats;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentPatch;
+import ru.hogwarts.school.model.StudentState;
+import ru.hogwarts.school.repository.CollectionCounterRepository;
 import ru.hogwarts.school.repository.StudentRepository;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class StudentService {
     private final StudentRepository studentRepository;
+    private final AvatarService avatarService;
+    private final StudentStatistics studentStatistics;
+    private final StudentReadModel studentReadModel;
+    private final StudentNameIndex studentNameIndex;
+    private final CacheInvalidationBus cacheInvalidationBus;
+    private final VersionedUpdater versionedUpdater;
+    private final CollectionCounterRepository collectionCounterRepository;
+    private final KeysetPager<Student> pager;
 
-    public StudentService(StudentRepository studentRepository) {
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public StudentService(StudentRepository studentRepository, AvatarService avatarService,
+                          StudentStatistics studentStatistics, StudentReadModel studentReadModel,
+                          StudentNameIndex studentNameIndex, CacheInvalidationBus cacheInvalidationBus,
+                          VersionedUpdater versionedUpdater,
+                          CollectionCounterRepository collectionCounterRepository) {
         this.studentRepository = studentRepository;
+        this.avatarService = avatarService;
+        this.studentStatistics = studentStatistics;
+        this.studentReadModel = studentReadModel;
+        this.studentNameIndex = studentNameIndex;
+        this.cacheInvalidationBus = cacheInvalidationBus;
+        this.versionedUpdater = versionedUpdater;
+        this.collectionCounterRepository = collectionCounterRepository;
+        this.pager = new KeysetPager<>(studentRepository,
+                Map.of("id", Student::getId, "name", Student::getName, "age", Student::getAge),
+                Student::getId, "faculty");
+        cacheInvalidationBus.onRemoteChange(CacheInvalidationBus.Entity.STUDENT, this::studentsChangedElsewhere);
+        cacheInvalidationBus.onRemoteChange(CacheInvalidationBus.Entity.FACULTY, ids -> studentStatistics.reconcileSoon());
+        cacheInvalidationBus.onMissedChanges(() -> {
+            studentReadModel.reset();
+            studentNameIndex.reset();
+            studentStatistics.reconcileSoon();
+        });
     }
 
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS}, allEntries = true)
     public Student createStudent(Student student) {
-        return studentRepository.save(student);
+        Student created = studentRepository.save(student);
+        collectionCounterRepository.bump(CollectionCounter.STUDENTS);
+        studentReadModel.studentsSaved(List.of(created));
+        studentNameIndex.studentsSaved(List.of(created));
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.STUDENT, List.of(created.getId()));
+        return created;
+    }
+
+    /**
+     * Inserts all the students in one transaction. Ids come from a pooled sequence, so Hibernate can send the
+     * inserts as JDBC batches instead of one round trip per row.
+     */
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS}, allEntries = true)
+    public List<Student> createStudents(List<Student> students) {
+        List<Student> created = studentRepository.saveAll(students);
+        collectionCounterRepository.bump(CollectionCounter.STUDENTS);
+        studentReadModel.studentsSaved(created);
+        studentNameIndex.studentsSaved(created);
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.STUDENT, created.stream().map(Student::getId).toList());
+        return created;
     }
 
+    @Cacheable(cacheNames = CacheConfig.STUDENTS, key = "#id", sync = true)
     public Student findStudent(Long id) {
         return studentRepository.findById(id).orElse(null);
     }
 
-    public Student editStudent(Student student) {
-        if (studentRepository.existsById(student.getId())) {
-            return studentRepository.save(student);
+    /**
+     * Replaces every field of the student.
+     *
+     * @param expectedVersion the version the caller last read, or null to overwrite whatever is stored
+     * @return the updated student, or null if it does not exist
+     * @throws OptimisticLockingFailureException if the student changed since {@code expectedVersion}
+     * @throws IllegalArgumentException if the faculty is given without an id
+     */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.STUDENTS, key = "#student.id"),
+            @CacheEvict(cacheNames = {CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS}, allEntries = true)})
+    public Student editStudent(Student student, Long expectedVersion) {
+        if (student.getId() == null) {
+            return null;
+        }
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", student.getName());
+        values.put("age", student.getAge());
+        values.put("faculty", requireId(student.getFaculty()));
+        return update(student.getId(), expectedVersion, values);
+    }
+
+    /**
+     * Changes only the fields the patch sets; same contract as {@link #editStudent}.
+     */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.STUDENTS, key = "#id"),
+            @CacheEvict(cacheNames = {CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS}, allEntries = true)})
+    public Student patchStudent(Long id, Long expectedVersion, StudentPatch patch) {
+        Map<String, Object> values = new HashMap<>();
+        if (patch.name() != null) {
+            values.put("name", patch.name());
+        }
+        if (patch.age() != null) {
+            values.put("age", patch.age());
+        }
+        if (patch.faculty() != null) {
+            values.put("faculty", requireId(patch.faculty()));
+        }
+        return update(id, expectedVersion, values);
+    }
+
+    /**
+     * The update commits on its own, together with the counter bump, so the row stays locked for one
+     * statement. It is made conditional on the version read just before it, even when the caller gave none,
+     * so the statistics can move the student from exactly the values it replaced; a concurrent write in
+     * between makes it read and try again. Other instances are told after that, and the student is read back
+     * only afterwards, for the in-memory views and the caller.
+     */
+    private Student update(Long id, Long expectedVersion, Map<String, Object> values) {
+        StudentState before;
+        do {
+            before = studentRepository.findStateById(id).orElse(null);
+            if (before == null) {
+                return null;
+            }
+            if (expectedVersion != null && before.version() != expectedVersion) {
+                throw new ObjectOptimisticLockingFailureException(Student.class, id);
+            }
+        } while (versionedUpdater.update(Student.class, id, before.version(), values, CollectionCounter.STUDENTS) == 0);
+        studentStatistics.studentUpdated(id, before, applied(before, values));
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.STUDENT, List.of(id));
+        Student updated = studentRepository.findById(id).orElse(null);
+        if (updated == null) {
+            // Deleted right after the update; the delete keeps the views in step.
+            return null;
+        }
+        studentReadModel.studentsSaved(List.of(updated));
+        studentNameIndex.studentsSaved(List.of(updated));
+        return updated;
+    }
+
+    private static StudentState applied(StudentState before, Map<String, Object> values) {
+        String name = values.containsKey("name") ? (String) values.get("name") : before.name();
+        int age = values.containsKey("age") ? (Integer) values.get("age") : before.age();
+        Long facultyId = values.containsKey("faculty") ? facultyIdOf((Faculty) values.get("faculty")) : before.facultyId();
+        return new StudentState(name, age, facultyId, before.version() + 1);
+    }
+
+    private static Long facultyIdOf(Faculty faculty) {
+        return faculty == null ? null : faculty.getId();
+    }
+
+    /**
+     * @throws IllegalArgumentException if a faculty is given without saying which one
+     */
+    private static Faculty requireId(Faculty faculty) {
+        if (faculty != null && faculty.getId() == null) {
+            throw new IllegalArgumentException("Faculty id is required");
+        }
+        return faculty;
+    }
+
+    /**
+     * Updates all the students in one transaction, or none of them if any is missing. The current rows are
+     * loaded with one query and changed in place, so the updates are flushed as JDBC batches.
+     *
+     * @return the updated students, or null if some id does not exist
+     */
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.STUDENTS, CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS},
+            allEntries = true)
+    public List<Student> editStudents(List<Student> students) {
+        Map<Long, Student> existing = new HashMap<>();
+        if (students.stream().noneMatch(student -> student.getId() == null)) {
+            for (Student student : studentRepository.findAllById(students.stream().map(Student::getId).toList())) {
+                existing.put(student.getId(), student);
+            }
+        }
+        List<Student> edited = new ArrayList<>();
+        for (Student student : students) {
+            Student current = existing.get(student.getId());
+            if (current == null) {
+                return null;
+            }
+            current.setName(student.getName());
+            current.setAge(student.getAge());
+            current.setFaculty(student.getFaculty() == null ? null
+                    : entityManager.getReference(Faculty.class, student.getFaculty().getId()));
+            edited.add(current);
         }
-        return null;
+        collectionCounterRepository.bump(CollectionCounter.STUDENTS);
+        studentReadModel.studentsSaved(edited);
+        studentNameIndex.studentsSaved(edited);
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.STUDENT, edited.stream().map(Student::getId).toList());
+        return edited;
     }
 
+    @Transactional
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.STUDENTS, key = "#id"),
+            @CacheEvict(cacheNames = {CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS}, allEntries = true)})
     public void deleteStudent(Long id) {
+        // The avatar refers to the student one-way, so it has to go first.
+        avatarService.deleteAvatar(id);
         studentRepository.deleteById(id);
+        collectionCounterRepository.bump(CollectionCounter.STUDENTS);
+        studentReadModel.studentsDeleted(List.of(id));
+        studentNameIndex.studentsDeleted(List.of(id));
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.STUDENT, List.of(id));
     }
 
-    public List<Student> findAllStudent() {
-        return studentRepository.findAll();
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.STUDENTS, CacheConfig.FACULTY_STUDENTS, CacheConfig.VERSIONS},
+            allEntries = true)
+    public void deleteStudents(List<Long> ids) {
+        avatarService.deleteAvatars(ids);
+        // Removing loaded rows keeps the deletes batched and still raises the events the statistics follow.
+        studentRepository.deleteAll(studentRepository.findAllById(ids));
+        collectionCounterRepository.bump(CollectionCounter.STUDENTS);
+        studentReadModel.studentsDeleted(ids);
+        studentNameIndex.studentsDeleted(ids);
+        cacheInvalidationBus.publish(CacheInvalidationBus.Entity.STUDENT, ids);
+    }
+
+    /**
+     * Brings the in-memory views up to date with students another instance wrote; a missing id was deleted.
+     */
+    private void studentsChangedElsewhere(Collection<Long> ids) {
+        List<Student> found = studentRepository.findAllById(ids);
+        Set<Long> deleted = new HashSet<>(ids);
+        found.forEach(student -> deleted.remove(student.getId()));
+        studentReadModel.studentsSaved(found);
+        studentReadModel.studentsDeleted(deleted);
+        studentNameIndex.studentsSaved(found);
+        studentNameIndex.studentsDeleted(deleted);
+        studentStatistics.reconcileSoon();
+    }
+
+    /**
+     * Returns the version of the student table, which changes whenever any student does.
+     */
+    @Cacheable(cacheNames = CacheConfig.VERSIONS, key = "'students'", sync = true)
+    public CollectionVersion getStudentsVersion() {
+        return collectionCounterRepository.findVersion(CollectionCounter.STUDENTS);
+    }
+
+    /**
+     * Returns the version of the read model that age and faculty lists are served from, or null if it is
+     * off and they are read from the table.
+     */
+    public CollectionVersion getReadModelVersion() {
+        return studentReadModel.isEnabled() ? studentReadModel.getVersion() : null;
+    }
+
+    /**
+     * Returns the version of the name index that {@link #searchStudents} ranks by.
+     */
+    public CollectionVersion getNameIndexVersion() {
+        return studentNameIndex.getVersion();
+    }
+
+    public CursorPage<Student> findAllStudent(String sort, String cursor, Integer limit) {
+        return pager.page(sort, cursor, limit);
+    }
+
+    /**
+     * Hands every student to the action as rows arrive from the database cursor. Each row is detached once
+     * handled, so the persistence context, and with it the heap, stays flat however large the table is.
+     *
+     * @return the number of students handled
+     */
+    @Transactional(readOnly = true)
+    public long forEachStudent(Consumer<Student> action) {
+        long count = 0;
+        try (Stream<Student> students = studentRepository.streamAll()) {
+            Iterator<Student> it = students.iterator();
+            while (it.hasNext()) {
+                Student student = it.next();
+                action.accept(student);
+                entityManager.detach(student);
+                count++;
+            }
+        }
+        return count;
     }
 
     public List<Student> findStudentAgeBetween(int minAge, int maxAge) {
+        if (studentReadModel.isEnabled()) {
+            return studentReadModel.findByAgeBetween(minAge, maxAge);
+        }
         return studentRepository.findByAgeBetween(minAge, maxAge);
     }
 
-    public List<Student> findStudentsByFaculty(Faculty faculty) {
-        return studentRepository.findByFaculty(faculty);
+    /**
+     * Returns the students whose names best match the query, best first.
+     */
+    public List<Student> searchStudents(String query, Integer limit) {
+        List<Long> ids = studentNameIndex.search(query, limit);
+        Map<Long, Student> found = new HashMap<>();
+        studentRepository.findByIdIn(ids).forEach(student -> found.put(student.getId(), student));
+        return ids.stream().map(found::get).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * The read model is in memory already, so its answers skip the cache: an entry there could predate the
+     * snapshot the list is tagged by.
+     */
+    @Cacheable(cacheNames = CacheConfig.FACULTY_STUDENTS, key = "#facultyId", sync = true,
+            condition = "!@studentReadModel.isEnabled()")
+    public List<Student> findStudentsByFaculty(Long facultyId) {
+        if (studentReadModel.isEnabled()) {
+            return studentReadModel.findByFacultyId(facultyId);
+        }
+        return studentRepository.findByFacultyId(facultyId);
     }
 
     public int countAllStudents() {
-        return studentRepository.countAllStudents();
+        return (int) studentStatistics.getCount();
     }
 
     public double countAvgAllStudents() {
-        return studentRepository.countAvgAllStudents();
+        return studentStatistics.getAverageAge();
+    }
+
+    public Integer getAgePercentile(double percentile) {
+        return studentStatistics.getAgePercentile(percentile);
+    }
+
+    public List<FacultyStudentStats> getFacultyStats() {
+        return studentStatistics.getFacultyStats();
     }
 
     public List<Student> getLastStudent() {
-        return studentRepository.getLastStudent();
+        return studentStatistics.getRecentStudents();
     }
 }
\ No newline at end of file
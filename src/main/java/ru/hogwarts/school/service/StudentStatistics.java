@@ -0,0 +1,425 @@
+package ru.hogwarts.school.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.cache.AfterCommit;
+import ru.hogwarts.school.model.AgeGroup;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.FacultyStudentStats;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentState;
+import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Student count, age sum, age histogram, per-faculty tallies and the newest students, kept current from
+ * Hibernate's post-commit events so the statistics endpoints never scan the table. Writes that bypass the
+ * session, such as bulk JPQL or plain SQL, are caught up by reconciling with the database in the background.
+ */
+@Component
+public class StudentStatistics implements PostCommitInsertEventListener, PostCommitUpdateEventListener,
+        PostCommitDeleteEventListener {
+    private static final Logger log = LoggerFactory.getLogger(StudentStatistics.class);
+
+    /**
+     * How many of the newest students are kept; matches {@link StudentRepository#findTop5ByOrderByIdDesc}.
+     */
+    static final int RECENT = 5;
+    private static final int RECONCILE_ATTEMPTS = 3;
+    private static final long RECONCILE_DELAY_MILLIS = 1000;
+
+    private final StudentRepository studentRepository;
+    private final FacultyRepository facultyRepository;
+    private final EntityManagerFactory entityManagerFactory;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean reconcilePending = new AtomicBoolean();
+
+    private boolean loaded;
+    private boolean recentStale;
+    private long modifications;
+    private long count;
+    private long ageSum;
+    private TreeMap<Integer, Long> ages = new TreeMap<>();
+    private Map<Long, Tally> tallies = new HashMap<>();
+    private Map<Long, Faculty> faculties = new HashMap<>();
+    // Newest first.
+    private List<RecentStudent> recent = new ArrayList<>();
+
+    public StudentStatistics(StudentRepository studentRepository,
+                             FacultyRepository facultyRepository,
+                             EntityManagerFactory entityManagerFactory,
+                             @Value("${student.stats.reconcile-interval-seconds:300}") long intervalSeconds) {
+        this.studentRepository = studentRepository;
+        this.facultyRepository = facultyRepository;
+        this.entityManagerFactory = entityManagerFactory;
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "student-stats-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::reconcileQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PostConstruct
+    public void register() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+    }
+
+    public long getCount() {
+        ensureLoaded();
+        synchronized (this) {
+            return count;
+        }
+    }
+
+    public double getAverageAge() {
+        ensureLoaded();
+        synchronized (this) {
+            return count == 0 ? 0 : (double) ageSum / count;
+        }
+    }
+
+    /**
+     * Returns the nearest-rank percentile of the students' ages, or null if there are no students.
+     */
+    public Integer getAgePercentile(double percentile) {
+        if (!(percentile > 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be in (0, 100]: " + percentile);
+        }
+        ensureLoaded();
+        synchronized (this) {
+            if (count == 0) {
+                return null;
+            }
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            long seen = 0;
+            for (Map.Entry<Integer, Long> age : ages.entrySet()) {
+                seen += age.getValue();
+                if (seen >= rank) {
+                    return age.getKey();
+                }
+            }
+            return ages.lastKey();
+        }
+    }
+
+    public List<FacultyStudentStats> getFacultyStats() {
+        ensureLoaded();
+        synchronized (this) {
+            List<FacultyStudentStats> stats = new ArrayList<>();
+            for (Faculty faculty : faculties.values()) {
+                Tally tally = tallies.getOrDefault(faculty.getId(), new Tally());
+                stats.add(new FacultyStudentStats(faculty.getId(), faculty.getName(), faculty.getColor(),
+                        tally.students, tally.students == 0 ? 0 : (double) tally.ageSum / tally.students));
+            }
+            stats.sort(Comparator.comparing(FacultyStudentStats::facultyId));
+            return stats;
+        }
+    }
+
+    public List<Student> getRecentStudents() {
+        ensureLoaded();
+        if (isRecentStale()) {
+            // A deleted student left a gap that only the database can fill.
+            long stamp = stamp();
+            List<Student> newest = studentRepository.findTop5ByOrderByIdDesc();
+            synchronized (this) {
+                if (stamp == modifications) {
+                    recent = recentOf(newest);
+                    recentStale = false;
+                }
+            }
+        }
+        synchronized (this) {
+            List<Student> students = new ArrayList<>();
+            for (RecentStudent student : recent) {
+                Faculty faculty = student.facultyId() == null ? null : faculties.get(student.facultyId());
+                students.add(new Student(student.id(), student.name(), student.age(), faculty));
+            }
+            return students;
+        }
+    }
+
+    /**
+     * Rebuilds everything from the database. A rebuild that raced with a commit is thrown away and retried,
+     * since it may have missed that commit while its event was applied to the old state.
+     */
+    public void reconcile() {
+        for (int attempt = 1; attempt <= RECONCILE_ATTEMPTS; attempt++) {
+            long stamp = stamp();
+            List<AgeGroup> groups = studentRepository.countByAgeAndFaculty();
+            List<Faculty> allFaculties = facultyRepository.findAll();
+            List<Student> newest = studentRepository.findTop5ByOrderByIdDesc();
+            synchronized (this) {
+                if (stamp == modifications || attempt == RECONCILE_ATTEMPTS) {
+                    rebuild(groups, allFaculties, newest);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds shortly, folding the requests that arrive meanwhile into one; for writes made by other
+     * instances, which raise no events here.
+     */
+    public void reconcileSoon() {
+        if (reconcilePending.compareAndSet(false, true)) {
+            executor.schedule(() -> {
+                reconcilePending.set(false);
+                reconcileQuietly();
+            }, RECONCILE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Applies a student changed by a bulk update, which raises no events, as the change from the values it
+     * replaced to the ones it wrote.
+     */
+    public void studentUpdated(Long id, StudentState before, StudentState after) {
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                modifications++;
+                if (loaded) {
+                    remove(id, before.age(), before.facultyId(), false);
+                    add(id, after.name(), after.age(), after.facultyId());
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies faculties changed by a bulk update, which raises no events.
+     */
+    public void facultiesUpdated(Collection<Faculty> updated) {
+        List<Faculty> copies = updated.stream().map(StudentStatistics::copyOf).toList();
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                modifications++;
+                copies.forEach(faculty -> faculties.put(faculty.getId(), faculty));
+            }
+        });
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (RuntimeException e) {
+            log.warn("Student statistics reconciliation failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            synchronized (this) {
+                modifications++;
+                if (loaded) {
+                    add(student.getId(), student.getName(), student.getAge(), facultyIdOf(student.getFaculty()));
+                }
+            }
+        } else if (event.getEntity() instanceof Faculty faculty) {
+            synchronized (this) {
+                modifications++;
+                faculties.put(faculty.getId(), copyOf(faculty));
+            }
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            Object[] oldState = event.getOldState();
+            synchronized (this) {
+                modifications++;
+                if (!loaded) {
+                    return;
+                }
+                if (oldState == null) {
+                    // Updated without its loaded state, so the old values are unknown.
+                    loaded = false;
+                    return;
+                }
+                List<String> properties = Arrays.asList(event.getPersister().getPropertyNames());
+                remove(student.getId(), (Integer) oldState[properties.indexOf("age")],
+                        facultyIdOf(oldState[properties.indexOf("faculty")]), false);
+                add(student.getId(), student.getName(), student.getAge(), facultyIdOf(student.getFaculty()));
+            }
+        } else if (event.getEntity() instanceof Faculty faculty) {
+            synchronized (this) {
+                modifications++;
+                faculties.put(faculty.getId(), copyOf(faculty));
+            }
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            synchronized (this) {
+                modifications++;
+                if (loaded) {
+                    remove(student.getId(), student.getAge(), facultyIdOf(student.getFaculty()), true);
+                }
+            }
+        } else if (event.getEntity() instanceof Faculty faculty) {
+            synchronized (this) {
+                modifications++;
+                faculties.remove(faculty.getId());
+            }
+        }
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        Class<?> type = persister.getMappedClass();
+        return type == Student.class || type == Faculty.class;
+    }
+
+    private void ensureLoaded() {
+        if (!isLoaded()) {
+            reconcile();
+        }
+    }
+
+    private synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    private synchronized boolean isRecentStale() {
+        return recentStale;
+    }
+
+    private synchronized long stamp() {
+        return modifications;
+    }
+
+    private void rebuild(List<AgeGroup> groups, List<Faculty> allFaculties, List<Student> newest) {
+        count = 0;
+        ageSum = 0;
+        ages = new TreeMap<>();
+        tallies = new HashMap<>();
+        for (AgeGroup group : groups) {
+            count += group.students();
+            ageSum += (long) group.age() * group.students();
+            ages.merge(group.age(), group.students(), Long::sum);
+            if (group.facultyId() != null) {
+                Tally tally = tallies.computeIfAbsent(group.facultyId(), id -> new Tally());
+                tally.students += group.students();
+                tally.ageSum += (long) group.age() * group.students();
+            }
+        }
+        faculties = new HashMap<>();
+        allFaculties.forEach(faculty -> faculties.put(faculty.getId(), copyOf(faculty)));
+        recent = recentOf(newest);
+        recentStale = false;
+        loaded = true;
+    }
+
+    private void add(Long id, String name, int age, Long facultyId) {
+        count++;
+        ageSum += age;
+        ages.merge(age, 1L, Long::sum);
+        if (facultyId != null) {
+            Tally tally = tallies.computeIfAbsent(facultyId, key -> new Tally());
+            tally.students++;
+            tally.ageSum += age;
+        }
+        recent.removeIf(student -> student.id().equals(id));
+        if (recent.size() < RECENT || id > recent.get(recent.size() - 1).id()) {
+            recent.add(new RecentStudent(id, name, age, facultyId));
+            recent.sort(Comparator.comparing(RecentStudent::id).reversed());
+            if (recent.size() > RECENT) {
+                recent.remove(RECENT);
+            }
+        }
+    }
+
+    private void remove(Long id, int age, Long facultyId, boolean deleted) {
+        count--;
+        ageSum -= age;
+        ages.computeIfPresent(age, (key, students) -> students == 1 ? null : students - 1);
+        Tally tally = facultyId == null ? null : tallies.get(facultyId);
+        if (tally != null) {
+            tally.students--;
+            tally.ageSum -= age;
+        }
+        if (deleted && recent.removeIf(student -> student.id().equals(id))) {
+            recentStale = true;
+        }
+    }
+
+    private static List<RecentStudent> recentOf(List<Student> students) {
+        List<RecentStudent> recent = new ArrayList<>();
+        for (Student student : students) {
+            recent.add(new RecentStudent(student.getId(), student.getName(), student.getAge(),
+                    facultyIdOf(student.getFaculty())));
+        }
+        return recent;
+    }
+
+    private static Long facultyIdOf(Object faculty) {
+        return faculty == null ? null : ((Faculty) faculty).getId();
+    }
+
+    private static Faculty copyOf(Faculty faculty) {
+        return new Faculty(faculty.getId(), faculty.getName(), faculty.getColor());
+    }
+
+    private static class Tally {
+        long students;
+        long ageSum;
+    }
+
+    private record RecentStudent(Long id, String name, int age, Long facultyId) {
+    }
+}
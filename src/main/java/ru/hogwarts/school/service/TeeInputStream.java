@@ -0,0 +1,109 @@
+package ru.hogwarts.school.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+
+class TeeInputStream extends FilterInputStream {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    // Direct buffers are expensive to allocate, so each request thread keeps its own.
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private final WritableByteChannel sink;
+    private final MessageDigest digest;
+    private final ByteBuffer buffer;
+    private long count;
+
+    TeeInputStream(InputStream in, WritableByteChannel sink, MessageDigest digest) {
+        super(in);
+        this.sink = sink;
+        this.digest = digest;
+        this.buffer = BUFFERS.get();
+        this.buffer.clear();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            buffer.put((byte) b);
+            digest.update((byte) b);
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            int written = 0;
+            while (written < n) {
+                if (!buffer.hasRemaining()) {
+                    flushBuffer();
+                }
+                int chunk = Math.min(buffer.remaining(), n - written);
+                buffer.put(b, off + written, chunk);
+                written += chunk;
+            }
+            digest.update(b, off, n);
+            count += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes must still reach the sink, so read them through the tee.
+        byte[] scratch = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+            if (r < 0) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Copies whatever the decoder left unread to the sink and returns the total number of bytes seen.
+     */
+    long drain() throws IOException {
+        byte[] scratch = new byte[8192];
+        while (read(scratch, 0, scratch.length) != -1) {
+            // keep reading, bytes are teed into the buffer
+        }
+        flushBuffer();
+        return count;
+    }
+
+    /**
+     * Returns the digest of every byte seen; call after {@link #drain()}.
+     */
+    byte[] digest() {
+        return digest.digest();
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            sink.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,75 @@
+package ru.hogwarts.school.service;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.PersistenceUnitUtil;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaUpdate;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.metamodel.Attribute;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.hogwarts.school.repository.CollectionCounterRepository;
+
+import java.util.Map;
+
+/**
+ * Updates a row with a single {@code UPDATE ... WHERE id = ? AND version = ?}, without loading it first.
+ * The row is locked only for that one statement and its commit, and a version that moved on since the
+ * client read the row makes the statement match nothing instead of overwriting someone else's change.
+ * The table's collection counter is bumped in the same transaction, so no reader sees the row change
+ * without the counter or the other way round.
+ */
+@Component
+public class VersionedUpdater {
+    private final CollectionCounterRepository collectionCounterRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public VersionedUpdater(CollectionCounterRepository collectionCounterRepository) {
+        this.collectionCounterRepository = collectionCounterRepository;
+    }
+
+    /**
+     * Sets the given attributes and bumps the version. An association is given as an entity carrying its id.
+     *
+     * @param expectedVersion the version the row must still have, or null to update whatever it is
+     * @param counter         the collection counter to bump if the row was updated
+     * @return the number of rows updated, 0 if the row is missing or its version differs
+     */
+    @Transactional
+    public <E> int update(Class<E> type, Long id, Long expectedVersion, Map<String, ?> values, String counter) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<E> update = builder.createCriteriaUpdate(type);
+        Root<E> root = update.from(type);
+        PersistenceUnitUtil units = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        values.forEach((name, value) -> {
+            Path<Object> path = root.get(name);
+            Attribute<?, ?> attribute = entityManager.getMetamodel().entity(type).getAttribute(name);
+            if (value == null) {
+                Expression<?> nothing = builder.nullLiteral(attribute.getJavaType());
+                update.<Object>set(path, nothing);
+            } else if (attribute.isAssociation()) {
+                Object reference = entityManager.getReference(attribute.getJavaType(), units.getIdentifier(value));
+                update.set(path, reference);
+            } else {
+                update.set(path, value);
+            }
+        });
+        Path<Long> version = root.get("version");
+        update.set(version, builder.sum(version, 1L));
+        Predicate where = builder.equal(root.get("id"), id);
+        if (expectedVersion != null) {
+            where = builder.and(where, builder.equal(version, expectedVersion));
+        }
+        int updated = entityManager.createQuery(update.where(where)).executeUpdate();
+        if (updated > 0) {
+            collectionCounterRepository.bump(counter);
+        }
+        return updated;
+    }
+}
@@ -0,0 +1,38 @@
+package ru.hogwarts.school.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Key/value store for avatar originals and previews. Keys are content-addressed, so a key is never
+ * rewritten with different bytes; {@code put} on an existing key may simply replace it.
+ */
+public interface AvatarStorage {
+
+    /**
+     * Stores the file under the key; the source file may be moved or deleted by the backend.
+     */
+    void put(String key, Path source) throws IOException;
+
+    void put(String key, byte[] content) throws IOException;
+
+    /**
+     * Returns the blob metadata, or null if the key is not stored.
+     */
+    StoredBlob stat(String key) throws IOException;
+
+    InputStream open(String key) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    default boolean exists(String key) throws IOException {
+        return stat(key) != null;
+    }
+
+    default byte[] read(String key) throws IOException {
+        try (InputStream is = open(key)) {
+            return is.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ru.hogwarts.school.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.hogwarts.school.repository.AvatarBlobRepository;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Chooses the backend for originals and previews independently: {@code filesystem}, {@code database}
+ * or {@code packfile}.
+ */
+@Configuration
+public class AvatarStorageConfig {
+    public static final String ORIGINALS = "originalStorage";
+    public static final String PREVIEWS = "previewStorage";
+
+    @Value("${path.to.avatars.folder}")
+    private String avatarsDir;
+
+    @Bean(name = ORIGINALS)
+    public AvatarStorage originalStorage(@Value("${avatar.storage.originals.type:filesystem}") String type,
+                                         AvatarBlobRepository avatarBlobRepository,
+                                         PlatformTransactionManager transactionManager) throws IOException {
+        return create(type, "original", Path.of(avatarsDir), avatarBlobRepository, transactionManager);
+    }
+
+    @Bean(name = PREVIEWS)
+    public AvatarStorage previewStorage(@Value("${avatar.storage.previews.type:database}") String type,
+                                        AvatarBlobRepository avatarBlobRepository,
+                                        PlatformTransactionManager transactionManager) throws IOException {
+        return create(type, "preview", Path.of(avatarsDir, "previews"), avatarBlobRepository, transactionManager);
+    }
+
+    @Bean
+    public PreviewPackfile previewPackfile() throws IOException {
+        return new PreviewPackfile(Path.of(avatarsDir, "previews-by-student.pack"));
+    }
+
+    private AvatarStorage create(String type, String name, Path root, AvatarBlobRepository avatarBlobRepository,
+                                 PlatformTransactionManager transactionManager) throws IOException {
+        return switch (type) {
+            case "filesystem" -> new FileSystemAvatarStorage(root);
+            case "database" -> new DatabaseAvatarStorage(avatarBlobRepository, transactionManager, name);
+            case "packfile" -> new PackfileAvatarStorage(Path.of(avatarsDir, name + "s.pack"));
+            default -> throw new IllegalArgumentException("Unknown avatar storage type " + type);
+        };
+    }
+}
@@ -0,0 +1,16 @@
+package ru.hogwarts.school.storage;
+
+import java.io.IOException;
+
+/**
+ * An append-only pack whose replaced and deleted records can be dropped by rewriting it.
+ */
+public interface Compactable {
+
+    /**
+     * Returns the share of the file taken by records that are no longer reachable.
+     */
+    double getGarbageRatio() throws IOException;
+
+    void compact() throws IOException;
+}
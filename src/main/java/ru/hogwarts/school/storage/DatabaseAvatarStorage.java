@@ -0,0 +1,77 @@
+package ru.hogwarts.school.storage;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.AvatarBlob;
+import ru.hogwarts.school.repository.AvatarBlobRepository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Keeps blobs in the avatar_blob table. Puts join the caller's transaction when there is one. Deletes run in
+ * a transaction of their own, since callers issue them once the rows referring to the blob are committed,
+ * when the caller's transaction can no longer take writes.
+ */
+public class DatabaseAvatarStorage implements AvatarStorage {
+    private final AvatarBlobRepository avatarBlobRepository;
+    private final TransactionTemplate newTransaction;
+    private final String namespace;
+
+    public DatabaseAvatarStorage(AvatarBlobRepository avatarBlobRepository,
+                                 PlatformTransactionManager transactionManager, String namespace) {
+        this.avatarBlobRepository = avatarBlobRepository;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.namespace = namespace;
+    }
+
+    @Override
+    public void put(String key, Path source) throws IOException {
+        put(key, Files.readAllBytes(source));
+        Files.deleteIfExists(source);
+    }
+
+    @Override
+    public void put(String key, byte[] content) {
+        avatarBlobRepository.save(new AvatarBlob(storageKey(key), content.length, System.currentTimeMillis(), content));
+    }
+
+    @Override
+    public StoredBlob stat(String key) {
+        List<Object[]> rows = avatarBlobRepository.findSizeAndLastModified(storageKey(key));
+        if (rows.isEmpty()) {
+            return null;
+        }
+        return new StoredBlob((Long) rows.get(0)[0], (Long) rows.get(0)[1], null);
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return new ByteArrayInputStream(read(key));
+    }
+
+    @Override
+    public byte[] read(String key) throws IOException {
+        List<byte[]> data = avatarBlobRepository.findData(storageKey(key));
+        if (data.isEmpty()) {
+            throw new NoSuchFileException(key);
+        }
+        return data.get(0);
+    }
+
+    @Override
+    public void delete(String key) {
+        newTransaction.executeWithoutResult(status -> avatarBlobRepository.deleteByStorageKey(storageKey(key)));
+    }
+
+    private String storageKey(String key) {
+        return namespace + ":" + key;
+    }
+}
@@ -0,0 +1,91 @@
+package ru.hogwarts.school.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * One file per key, sharded by two levels of key-prefix directories so no directory grows too large.
+ */
+public class FileSystemAvatarStorage implements AvatarStorage {
+    private final Path root;
+    private final Path tmpDir;
+
+    public FileSystemAvatarStorage(Path root) throws IOException {
+        this.root = root;
+        this.tmpDir = root.resolve("tmp");
+        Files.createDirectories(tmpDir);
+    }
+
+    @Override
+    public void put(String key, Path source) throws IOException {
+        Path target = pathOf(key);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(source, target, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            // The source lives on another file system; copy it in through a temp file instead.
+            try (InputStream is = Files.newInputStream(source)) {
+                write(target, is);
+            }
+            Files.deleteIfExists(source);
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] content) throws IOException {
+        Path target = pathOf(key);
+        Files.createDirectories(target.getParent());
+        Path tmpFile = Files.createTempFile(tmpDir, "blob", null);
+        try {
+            Files.write(tmpFile, content);
+            Files.move(tmpFile, target, ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    @Override
+    public StoredBlob stat(String key) throws IOException {
+        Path path = pathOf(key);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new StoredBlob(attributes.size(), attributes.lastModifiedTime().toMillis(), path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(pathOf(key));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(pathOf(key));
+    }
+
+    private void write(Path target, InputStream is) throws IOException {
+        Path tmpFile = Files.createTempFile(tmpDir, "blob", null);
+        try {
+            Files.copy(is, tmpFile, REPLACE_EXISTING);
+            Files.move(tmpFile, target, ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private Path pathOf(String key) {
+        if (key.length() < 4 || !key.matches("[A-Za-z0-9_.-]+") || key.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid storage key " + key);
+        }
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+}
@@ -0,0 +1,358 @@
+package ru.hogwarts.school.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only pack of blobs with an in-memory offset index that is rebuilt by scanning the file on startup.
+ * A record is {@code magic, type, timestamp, key length, key, data length, data}; deletes append a tombstone.
+ * Every record is forced to disk before it becomes visible, and a record that fails halfway is cut off again,
+ * so the scan on startup never runs into a header whose data is missing.
+ * <p>
+ * Blobs are only handed out as streams, never as a file and offset: compaction rewrites the file under the
+ * same name, so a bare offset could end up pointing into another blob. Each stream pins the generation of
+ * the pack it was opened on, and a pack replaced by compaction is closed once its last stream is.
+ */
+public class PackfileAvatarStorage implements AvatarStorage, Compactable, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(PackfileAvatarStorage.class);
+
+    private static final int MAGIC = 0x41565042;
+    private static final byte PUT = 0;
+    private static final byte DELETE = 1;
+    private static final int FIXED_HEADER = Integer.BYTES + Byte.BYTES + Long.BYTES + Short.BYTES + Long.BYTES;
+    private static final DataWriter NO_DATA = offset -> {
+    };
+
+    private final Path packFile;
+    private Pack pack;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private long garbageBytes;
+
+    public PackfileAvatarStorage(Path packFile) throws IOException {
+        this.packFile = packFile;
+        Files.createDirectories(packFile.toAbsolutePath().getParent());
+        this.pack = new Pack(FileChannel.open(packFile, CREATE, READ, WRITE));
+        rebuildIndex();
+    }
+
+    @Override
+    public void put(String key, Path source) throws IOException {
+        long size = Files.size(source);
+        try (FileChannel in = FileChannel.open(source, READ)) {
+            synchronized (this) {
+                long dataOffset = append(PUT, key, size, offset -> {
+                    long position = offset;
+                    while (position < offset + size) {
+                        long n = pack.channel.transferFrom(in, position, offset + size - position);
+                        if (n <= 0) {
+                            throw new IOException("Unexpected end of " + source);
+                        }
+                        position += n;
+                    }
+                });
+                publish(key, new Entry(pack, dataOffset, size, System.currentTimeMillis()));
+            }
+        }
+        Files.deleteIfExists(source);
+    }
+
+    @Override
+    public synchronized void put(String key, byte[] content) throws IOException {
+        long dataOffset = append(PUT, key, content.length,
+                offset -> writeFully(pack.channel, ByteBuffer.wrap(content), offset));
+        publish(key, new Entry(pack, dataOffset, content.length, System.currentTimeMillis()));
+    }
+
+    @Override
+    public StoredBlob stat(String key) {
+        Entry entry = index.get(key);
+        return entry == null ? null : new StoredBlob(entry.length, entry.timestamp, null);
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        while (true) {
+            Entry entry = index.get(key);
+            if (entry == null) {
+                throw new NoSuchFileException(key);
+            }
+            // A pack closed by a compaction in between has its blobs indexed in the new one by now.
+            if (entry.pack.acquire()) {
+                return new RegionInputStream(entry.pack, entry.offset, entry.length);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void delete(String key) throws IOException {
+        if (!index.containsKey(key)) {
+            return;
+        }
+        append(DELETE, key, 0, NO_DATA);
+        publish(key, null);
+    }
+
+    public synchronized long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    @Override
+    public synchronized double getGarbageRatio() throws IOException {
+        long size = pack.channel.size();
+        return size == 0 ? 0 : (double) garbageBytes / size;
+    }
+
+    /**
+     * Copies the live blobs into a fresh file and atomically swaps it in. Streams opened before keep reading
+     * the old file, which is closed when the last of them is.
+     */
+    @Override
+    public synchronized void compact() throws IOException {
+        Path tmpFile = packFile.resolveSibling(packFile.getFileName() + ".compact");
+        Map<String, Entry> compacted = new HashMap<>();
+        try (FileChannel out = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            long position = 0;
+            for (Map.Entry<String, Entry> blob : index.entrySet()) {
+                Entry entry = blob.getValue();
+                position += writeFully(out, header(PUT, blob.getKey(), entry.timestamp, entry.length), position);
+                compacted.put(blob.getKey(), new Entry(null, position, entry.length, entry.timestamp));
+                long copied = 0;
+                while (copied < entry.length) {
+                    long n = entry.pack.channel.transferTo(entry.offset + copied, entry.length - copied,
+                            out.position(position + copied));
+                    if (n <= 0) {
+                        throw new IOException("Unexpected end of " + packFile);
+                    }
+                    copied += n;
+                }
+                position += entry.length;
+            }
+            out.force(true);
+        }
+        Files.move(tmpFile, packFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        Pack retired = pack;
+        pack = new Pack(FileChannel.open(packFile, READ, WRITE));
+        compacted.forEach((key, entry) ->
+                index.put(key, new Entry(pack, entry.offset, entry.length, entry.timestamp)));
+        garbageBytes = 0;
+        retired.retire();
+    }
+
+    @Override
+    public String toString() {
+        return packFile.toString();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        pack.retire();
+    }
+
+    /**
+     * Appends a header and lets {@code data} write the record's body at the returned offset. The record is
+     * forced to disk before returning; if any part fails the file is cut back to where the record began.
+     */
+    private long append(byte type, String key, long length, DataWriter data) throws IOException {
+        long start = pack.channel.size();
+        try {
+            long dataOffset = start + writeFully(pack.channel, header(type, key, System.currentTimeMillis(), length), start);
+            data.write(dataOffset);
+            pack.channel.force(false);
+            return dataOffset;
+        } catch (IOException | RuntimeException e) {
+            try {
+                pack.channel.truncate(start);
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw e;
+        }
+    }
+
+    private static ByteBuffer header(byte type, String key, long timestamp, long length) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER + keyBytes.length);
+        return header.putInt(MAGIC).put(type).putLong(timestamp)
+                .putShort((short) keyBytes.length).put(keyBytes).putLong(length)
+                .flip();
+    }
+
+    private void publish(String key, Entry entry) {
+        Entry previous = entry == null ? index.remove(key) : index.put(key, entry);
+        if (previous != null) {
+            garbageBytes += previous.length;
+        }
+    }
+
+    private static int writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private void rebuildIndex() throws IOException {
+        long size = pack.channel.size();
+        long position = 0;
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER - Long.BYTES);
+        ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+        while (position < size) {
+            fixed.clear();
+            if (!readFully(fixed, position) || fixed.flip().getInt() != MAGIC) {
+                break;
+            }
+            byte type = fixed.get();
+            long timestamp = fixed.getLong();
+            ByteBuffer keyBytes = ByteBuffer.allocate(Short.toUnsignedInt(fixed.getShort()));
+            long keyOffset = position + fixed.limit();
+            length.clear();
+            if (!readFully(keyBytes, keyOffset) || !readFully(length, keyOffset + keyBytes.limit())) {
+                break;
+            }
+            long dataOffset = keyOffset + keyBytes.limit() + Long.BYTES;
+            long dataLength = length.flip().getLong();
+            if (dataOffset + dataLength > size) {
+                break;
+            }
+            String key = new String(keyBytes.array(), StandardCharsets.UTF_8);
+            publish(key, type == PUT ? new Entry(pack, dataOffset, dataLength, timestamp) : null);
+            position = dataOffset + dataLength;
+        }
+        if (position < size) {
+            // A crash left a partial record at the tail; drop it so new appends start from a clean boundary.
+            log.warn("Truncating {} torn bytes at the end of {}", size - position, packFile);
+            pack.channel.truncate(position);
+        }
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = pack.channel.read(buffer, position);
+            if (n < 0) {
+                return false;
+            }
+            position += n;
+        }
+        return true;
+    }
+
+    /**
+     * A blob together with the pack it was appended to, so a reader never pairs an offset with a compacted file.
+     */
+    private record Entry(Pack pack, long offset, long length, long timestamp) {
+    }
+
+    /**
+     * One generation of the pack file, counting the streams that read it. Once retired it closes with the
+     * last of them and refuses new ones.
+     */
+    private static final class Pack {
+        private final FileChannel channel;
+        private int readers;
+        private boolean retired;
+
+        Pack(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        synchronized boolean acquire() {
+            if (retired && readers == 0) {
+                return false;
+            }
+            readers++;
+            return true;
+        }
+
+        synchronized void release() throws IOException {
+            if (--readers == 0 && retired) {
+                channel.close();
+            }
+        }
+
+        synchronized void retire() throws IOException {
+            retired = true;
+            if (readers == 0) {
+                channel.close();
+            }
+        }
+    }
+
+    private interface DataWriter {
+        void write(long offset) throws IOException;
+    }
+
+    private static class RegionInputStream extends InputStream {
+        private final Pack pack;
+        private long position;
+        private final long end;
+        private boolean closed;
+
+        RegionInputStream(Pack pack, long offset, long length) {
+            this.pack = pack;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            int n = pack.channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                pack.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package ru.hogwarts.school.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.hogwarts.school.model.PreviewContent;
+import ru.hogwarts.school.model.PreviewPackStats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only file of rendered previews keyed by student id and width. Previews are read with positional
+ * reads, so hot ones come from the page cache without a mapping per append. A record is {@code magic, type,
+ * student id, width, media type, ETag, data length, data}; a tombstone drops every width of a student and a
+ * clear record, which is just {@code magic, type}, drops everything written before it. The
+ * offset index lives in memory and is rebuilt by scanning the file on startup. Offsets are ints, which caps
+ * the file at 2 GiB; compaction keeps it far below that by rewriting only the live records.
+ */
+public class PreviewPackfile implements Compactable, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(PreviewPackfile.class);
+
+    private static final int MAGIC = 0x50525650;
+    private static final byte PUT = 0;
+    private static final byte DELETE = 1;
+    private static final byte CLEAR = 2;
+
+    private final Path packFile;
+    private FileChannel channel;
+    // The file replaced by the last compaction, kept open for readers that still hold its entries.
+    private FileChannel retired;
+    // Each student's widths form an immutable map that is swapped whole, so readers never see half an update.
+    private volatile Map<Long, Map<Integer, Entry>> index = new ConcurrentHashMap<>();
+    private long liveBytes;
+    private long garbageBytes;
+    private long compactions;
+    private volatile long modifications;
+
+    public PreviewPackfile(Path packFile) throws IOException {
+        this.packFile = packFile;
+        Files.createDirectories(packFile.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(packFile, CREATE, READ, WRITE);
+        rebuildIndex();
+    }
+
+    public PreviewContent get(long studentId, int width) throws IOException {
+        Map<Integer, Entry> widths = index.get(studentId);
+        Entry entry = widths == null ? null : widths.get(width);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer data = ByteBuffer.allocate(entry.length);
+        while (data.hasRemaining()) {
+            if (entry.channel.read(data, entry.offset + data.position()) < 0) {
+                throw new IOException("Preview pack " + packFile + " ends inside a record");
+            }
+        }
+        return new PreviewContent(data.array(), entry.mediaType, entry.eTag);
+    }
+
+    /**
+     * Returns a token for {@link #put}; take it before loading a preview from the source of truth.
+     */
+    public long stamp() {
+        return modifications;
+    }
+
+    /**
+     * Appends the preview unless the pack was invalidated after {@code stamp} was taken, in which case the
+     * caller may hold a preview that has already been replaced and nothing is written.
+     */
+    public synchronized boolean put(long studentId, int width, PreviewContent content, long stamp) throws IOException {
+        if (stamp != modifications) {
+            return false;
+        }
+        byte[] mediaType = content.mediaType().getBytes(StandardCharsets.UTF_8);
+        byte[] eTag = content.eTag().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(headerSize(mediaType, eTag) + content.data().length);
+        record.putInt(MAGIC).put(PUT).putLong(studentId).putInt(width)
+                .putShort((short) mediaType.length).put(mediaType)
+                .putShort((short) eTag.length).put(eTag)
+                .putInt(content.data().length);
+        int dataOffset = append(record.put(content.data()).flip(), record.limit() - content.data().length);
+        Entry entry = new Entry(channel, dataOffset, content.data().length, content.mediaType(), content.eTag());
+        Map<Integer, Entry> widths = new HashMap<>(index.getOrDefault(studentId, Map.of()));
+        Entry previous = widths.put(width, entry);
+        if (previous != null) {
+            liveBytes -= previous.length;
+            garbageBytes += previous.length;
+        }
+        liveBytes += entry.length;
+        index.put(studentId, Map.copyOf(widths));
+        return true;
+    }
+
+    public synchronized void invalidate(long studentId) throws IOException {
+        modifications++;
+        Map<Integer, Entry> widths = index.get(studentId);
+        if (widths == null) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + Byte.BYTES + Long.BYTES);
+        record.putInt(MAGIC).put(DELETE).putLong(studentId).flip();
+        append(record, record.limit());
+        index.remove(studentId);
+        for (Entry entry : widths.values()) {
+            liveBytes -= entry.length;
+            garbageBytes += entry.length;
+        }
+    }
+
+    /**
+     * Drops every preview with a single record, however many students the pack holds.
+     */
+    public synchronized void invalidateAll() throws IOException {
+        modifications++;
+        if (index.isEmpty()) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + Byte.BYTES);
+        record.putInt(MAGIC).put(CLEAR).flip();
+        append(record, record.limit());
+        index = new ConcurrentHashMap<>();
+        garbageBytes += liveBytes;
+        liveBytes = 0;
+    }
+
+    public synchronized PreviewPackStats getStats() throws IOException {
+        int entries = 0;
+        for (Map<Integer, Entry> widths : index.values()) {
+            entries += widths.size();
+        }
+        return new PreviewPackStats(index.size(), entries, channel.size(), liveBytes, garbageBytes, compactions);
+    }
+
+    @Override
+    public synchronized double getGarbageRatio() throws IOException {
+        long size = channel.size();
+        return size == 0 ? 0 : (double) garbageBytes / size;
+    }
+
+    /**
+     * Copies the live records into a fresh file and atomically swaps it in. Readers keep using the old
+     * file until they pick up the new index; it stays open until the next compaction.
+     */
+    @Override
+    public synchronized void compact() throws IOException {
+        Path tmpFile = packFile.resolveSibling(packFile.getFileName() + ".compact");
+        Map<Long, Map<Integer, Entry>> compacted = new ConcurrentHashMap<>();
+        try (FileChannel out = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            long position = 0;
+            for (Map.Entry<Long, Map<Integer, Entry>> student : index.entrySet()) {
+                Map<Integer, Entry> widths = new HashMap<>();
+                for (Map.Entry<Integer, Entry> width : student.getValue().entrySet()) {
+                    Entry entry = width.getValue();
+                    byte[] mediaType = entry.mediaType.getBytes(StandardCharsets.UTF_8);
+                    byte[] eTag = entry.eTag.getBytes(StandardCharsets.UTF_8);
+                    ByteBuffer header = ByteBuffer.allocate(headerSize(mediaType, eTag));
+                    header.putInt(MAGIC).put(PUT).putLong(student.getKey()).putInt(width.getKey())
+                            .putShort((short) mediaType.length).put(mediaType)
+                            .putShort((short) eTag.length).put(eTag)
+                            .putInt(entry.length)
+                            .flip();
+                    position += writeFully(out, header, position);
+                    widths.put(width.getKey(), new Entry(null, (int) position, entry.length, entry.mediaType, entry.eTag));
+                    position += transferFully(entry, out, position);
+                }
+                compacted.put(student.getKey(), widths);
+            }
+            out.force(true);
+        }
+        Files.move(tmpFile, packFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        if (retired != null) {
+            retired.close();
+        }
+        retired = channel;
+        channel = FileChannel.open(packFile, READ, WRITE);
+        for (Map.Entry<Long, Map<Integer, Entry>> student : compacted.entrySet()) {
+            Map<Integer, Entry> widths = new HashMap<>();
+            student.getValue().forEach((width, entry) ->
+                    widths.put(width, new Entry(channel, entry.offset, entry.length, entry.mediaType, entry.eTag)));
+            student.setValue(Map.copyOf(widths));
+        }
+        index = compacted;
+        garbageBytes = 0;
+        compactions++;
+    }
+
+    @Override
+    public String toString() {
+        return packFile.toString();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (retired != null) {
+            retired.close();
+        }
+        channel.close();
+    }
+
+    private int append(ByteBuffer record, int dataOffsetInRecord) throws IOException {
+        long position = channel.size();
+        if (position + record.limit() > Integer.MAX_VALUE) {
+            throw new IOException("Preview pack " + packFile + " is full");
+        }
+        writeFully(channel, record, position);
+        return (int) position + dataOffsetInRecord;
+    }
+
+    private static int transferFully(Entry entry, FileChannel out, long position) throws IOException {
+        int copied = 0;
+        while (copied < entry.length) {
+            long n = entry.channel.transferTo(entry.offset + copied, entry.length - copied,
+                    out.position(position + copied));
+            if (n <= 0) {
+                throw new IOException("Preview pack ends inside a record");
+            }
+            copied += (int) n;
+        }
+        return copied;
+    }
+
+    private static int writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private static int headerSize(byte[] mediaType, byte[] eTag) {
+        return Integer.BYTES + Byte.BYTES + Long.BYTES + Integer.BYTES
+                + Short.BYTES + mediaType.length + Short.BYTES + eTag.length + Integer.BYTES;
+    }
+
+    private void rebuildIndex() throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Preview pack " + packFile + " exceeds 2 GiB");
+        }
+        // Only the scan goes through a mapping; it is dropped once the index is built.
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        Map<Long, Map<Integer, Entry>> scanned = new HashMap<>();
+        int position = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                if (buffer.getInt() != MAGIC) {
+                    break;
+                }
+                byte type = buffer.get();
+                if (type == CLEAR) {
+                    scanned.values().forEach(widths -> widths.values().forEach(entry -> garbageBytes += entry.length));
+                    scanned.clear();
+                    position = buffer.position();
+                    continue;
+                }
+                long studentId = buffer.getLong();
+                if (type == DELETE) {
+                    Map<Integer, Entry> removed = scanned.remove(studentId);
+                    if (removed != null) {
+                        removed.values().forEach(entry -> garbageBytes += entry.length);
+                    }
+                    position = buffer.position();
+                    continue;
+                }
+                int width = buffer.getInt();
+                String mediaType = readString(buffer);
+                String eTag = readString(buffer);
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;
+                }
+                Entry previous = scanned.computeIfAbsent(studentId, id -> new HashMap<>())
+                        .put(width, new Entry(channel, buffer.position(), length, mediaType, eTag));
+                if (previous != null) {
+                    garbageBytes += previous.length;
+                }
+                buffer.position(buffer.position() + length);
+                position = buffer.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // The last record was cut short; it is dropped below.
+        }
+        if (position < size) {
+            // A crash left a partial record at the tail; drop it so new appends start from a clean boundary.
+            log.warn("Truncating {} torn bytes at the end of {}", size - position, packFile);
+            channel.truncate(position);
+        }
+        scanned.forEach((studentId, widths) -> {
+            widths.values().forEach(entry -> liveBytes += entry.length);
+            index.put(studentId, Map.copyOf(widths));
+        });
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A preview together with the file it was appended to, so a reader never pairs an offset with a
+     * compacted file.
+     */
+    private record Entry(FileChannel channel, int offset, int length, String mediaType, String eTag) {
+    }
+}
@@ -0,0 +1,14 @@
+package ru.hogwarts.school.storage;
+
+import java.nio.file.Path;
+
+/**
+ * Metadata of a stored blob. {@code file} is set when the backend keeps the blob as a whole file of its own,
+ * which lets downloads use zero-copy transfers; it is null otherwise.
+ */
+public record StoredBlob(long size, long lastModified, Path file) {
+
+    public boolean isFileBacked() {
+        return file != null;
+    }
+}
@@ -0,0 +1,16 @@
+package ru.hogwarts.school.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * A stored blob together with the media type it is served as. {@code storage} is null for avatars saved
+ * before storage backends existed, which are plain files described by {@code blob}.
+ */
+public record StoredContent(AvatarStorage storage, String key, StoredBlob blob, String mediaType) {
+
+    public InputStream open() throws IOException {
+        return storage == null ? Files.newInputStream(blob.file()) : storage.open(key);
+    }
+}
@@ -0,0 +1,104 @@
+package ru.hogwarts.school;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.service.FacultyService;
+import ru.hogwarts.school.service.StudentService;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs two instances of the application against the same database, as behind a load balancer, and checks
+ * that a write on one reaches the caches of the other well within the cache time to live.
+ */
+class CacheInvalidationClusterTest {
+    private static final long MAX_STALENESS_MILLIS = 5000;
+
+    private ConfigurableApplicationContext first;
+    private ConfigurableApplicationContext second;
+
+    @BeforeEach
+    void startNodes(@TempDir Path firstDir, @TempDir Path secondDir) {
+        first = start(firstDir);
+        second = start(secondDir);
+    }
+
+    @AfterEach
+    void stopNodes() {
+        if (second != null) {
+            second.close();
+        }
+        if (first != null) {
+            first.close();
+        }
+    }
+
+    @Test
+    void edit_TestEvictsCachesOnTheOtherNode() throws Exception {
+        FacultyService firstFaculties = first.getBean(FacultyService.class);
+        StudentService firstStudents = first.getBean(StudentService.class);
+        FacultyService secondFaculties = second.getBean(FacultyService.class);
+        StudentService secondStudents = second.getBean(StudentService.class);
+
+        Faculty faculty = firstFaculties.createFaculty(new Faculty(null, "Кластер", "Серый"));
+        Student student = firstStudents.createStudent(new Student(null, "Иван", 20, faculty));
+        try {
+            awaitOnSecondNode(() -> secondFaculties.findFaculty(faculty.getId()) != null
+                    && secondStudents.findStudent(student.getId()) != null);
+            assertThat(secondFaculties.findFaculty(faculty.getId()).getName()).isEqualTo("Кластер");
+            assertThat(secondStudents.findStudentsByFaculty(faculty.getId())).extracting(Student::getName)
+                    .containsExactly("Иван");
+            assertThat(secondFaculties.searchFaculties("кластер", null)).extracting(Faculty::getId)
+                    .contains(faculty.getId());
+
+            firstFaculties.editFaculty(new Faculty(faculty.getId(), "Кластер Север", "Серый"), null);
+            firstStudents.editStudent(new Student(student.getId(), "Иван Грозный", 21, faculty), null);
+
+            awaitOnSecondNode(() ->
+                    "Кластер Север".equals(secondFaculties.findFaculty(faculty.getId()).getName())
+                            && "Иван Грозный".equals(secondStudents.findStudent(student.getId()).getName()));
+            awaitOnSecondNode(() -> secondFaculties.searchFaculties("север", null).stream()
+                    .anyMatch(found -> found.getId().equals(faculty.getId())));
+            awaitOnSecondNode(() -> secondStudents.searchStudents("грозный", null).stream()
+                    .anyMatch(found -> found.getId().equals(student.getId())));
+            awaitOnSecondNode(() -> secondStudents.findStudentsByFaculty(faculty.getId()).stream()
+                    .anyMatch(found -> found.getName().equals("Иван Грозный")));
+        } finally {
+            firstStudents.deleteStudent(student.getId());
+            firstFaculties.deleteFaculty(faculty.getId());
+        }
+
+        awaitOnSecondNode(() -> secondStudents.findStudent(student.getId()) == null
+                && secondFaculties.findFaculty(faculty.getId()) == null);
+    }
+
+    private static ConfigurableApplicationContext start(Path avatarsDir) {
+        return new SpringApplicationBuilder(SchoolApplication.class)
+                .properties("server.port=0",
+                        "path.to.avatars.folder=" + avatarsDir,
+                        "student.read-model.enabled=true")
+                .run();
+    }
+
+    /**
+     * Polls until the condition holds; fails once the bound is exceeded.
+     */
+    private static void awaitOnSecondNode(BooleanSupplier condition) throws InterruptedException {
+        long started = System.nanoTime();
+        while (!condition.getAsBoolean()) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            assertThat(elapsed).as("staleness on the second node").isLessThan(MAX_STALENESS_MILLIS);
+            Thread.sleep(20);
+        }
+    }
+}
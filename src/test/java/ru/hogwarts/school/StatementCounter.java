@@ -0,0 +1,37 @@
+package ru.hogwarts.school;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Counts the JDBC statements Hibernate prepares while an action runs, using the session factory statistics.
+ */
+public class StatementCounter {
+    private final Statistics statistics;
+
+    public StatementCounter(EntityManagerFactory entityManagerFactory) {
+        this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        this.statistics.setStatisticsEnabled(true);
+    }
+
+    public long count(Runnable action) {
+        statistics.clear();
+        action.run();
+        return statistics.getPrepareStatementCount();
+    }
+
+    /**
+     * Fails if the action returning many rows needs more statements than the one returning few, which is what
+     * an N+1 fetch looks like.
+     */
+    public void assertIndependentOfResultSize(Runnable fewRows, Runnable manyRows) {
+        long few = count(fewRows);
+        long many = count(manyRows);
+        assertThat(many)
+                .as("statements for the larger result (%d) vs the smaller one (%d)", many, few)
+                .isLessThanOrEqualTo(few);
+    }
+}
@@ -0,0 +1,128 @@
+package ru.hogwarts.school.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class CacheInvalidationBusTest {
+    private JdbcTemplate jdbcTemplate;
+    private CacheConfig.ExpiringCacheManager cacheManager;
+    private CacheInvalidationBus bus;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        cacheManager = new CacheConfig().cacheManager(TimeUnit.HOURS.toSeconds(1), 100, 2000);
+        cacheManager.initializeCaches();
+        bus = new CacheInvalidationBus(jdbcTemplate, mock(DataSource.class), cacheManager,
+                true, "school_cache", 500, 2000);
+    }
+
+    @Test
+    void publish_TestSplitsLongPayloads() {
+        List<Long> ids = LongStream.rangeClosed(1_000_000_000L, 1_000_002_000L).boxed().toList();
+
+        bus.publish(CacheInvalidationBus.Entity.STUDENT, ids);
+
+        List<String> payloads = published();
+        assertThat(payloads).hasSizeGreaterThan(1);
+        assertThat(payloads).allSatisfy(payload -> assertThat(payload.length()).isLessThanOrEqualTo(CacheInvalidationBus.MAX_PAYLOAD));
+        List<Long> sent = new ArrayList<>();
+        for (String payload : payloads) {
+            Arrays.stream(payload.split(" ")[2].split(",")).map(Long::valueOf).forEach(sent::add);
+        }
+        assertThat(sent).isEqualTo(ids);
+    }
+
+    @Test
+    void received_TestIgnoresOwnNotifications() {
+        List<Collection<Long>> changes = new ArrayList<>();
+        bus.onRemoteChange(CacheInvalidationBus.Entity.STUDENT, changes::add);
+        cacheManager.getCache(CacheConfig.STUDENTS).put(1L, "Иван");
+
+        bus.publish(CacheInvalidationBus.Entity.STUDENT, List.of(1L));
+        bus.received(published().get(0));
+
+        assertThat(changes).isEmpty();
+        assertThat(cacheManager.getCache(CacheConfig.STUDENTS).get(1L)).isNotNull();
+    }
+
+    @Test
+    void received_TestEvictsChangedStudents() {
+        List<Collection<Long>> changes = new ArrayList<>();
+        bus.onRemoteChange(CacheInvalidationBus.Entity.STUDENT, changes::add);
+        cacheManager.getCache(CacheConfig.STUDENTS).put(1L, "Иван");
+        cacheManager.getCache(CacheConfig.STUDENTS).put(2L, "Марья");
+        cacheManager.getCache(CacheConfig.FACULTY_STUDENTS).put(7L, List.of("Иван"));
+
+        bus.received("other-node STUDENT 1,3");
+
+        assertThat(changes).containsExactly(List.of(1L, 3L));
+        assertThat(cacheManager.getCache(CacheConfig.STUDENTS).get(1L)).isNull();
+        assertThat(cacheManager.getCache(CacheConfig.STUDENTS).get(2L)).isNotNull();
+        assertThat(cacheManager.getCache(CacheConfig.FACULTY_STUDENTS).get(7L)).isNull();
+    }
+
+    @Test
+    void received_TestFacultyChangeClearsEmbeddingCaches() {
+        cacheManager.getCache(CacheConfig.FACULTIES).put(7L, "Огонь");
+        cacheManager.getCache(CacheConfig.STUDENTS).put(1L, "Иван");
+
+        bus.received("other-node FACULTY 7");
+        bus.received("other-node UNKNOWN 7");
+        bus.received("garbage");
+
+        assertThat(cacheManager.getCache(CacheConfig.FACULTIES).get(7L)).isNull();
+        assertThat(cacheManager.getCache(CacheConfig.STUDENTS).get(1L)).isNull();
+    }
+
+    @Test
+    void missedChanges_TestDropsEverything() {
+        List<String> calls = new ArrayList<>();
+        bus.onMissedChanges(() -> calls.add("reset"));
+        cacheManager.getCache(CacheConfig.FACULTY_PAGES).put("page", "Огонь");
+
+        bus.missedChanges();
+
+        assertThat(calls).containsExactly("reset");
+        assertThat(cacheManager.getCache(CacheConfig.FACULTY_PAGES).get("page")).isNull();
+    }
+
+    @Test
+    void restarted_TestResetsOnlyStateKeptAcrossRestarts() {
+        List<String> calls = new ArrayList<>();
+        bus.onMissedChanges(() -> calls.add("memory"));
+        bus.onMissedChangesOrRestart(() -> calls.add("pack"));
+
+        bus.restarted();
+        assertThat(calls).containsExactly("pack");
+
+        bus.missedChanges();
+        assertThat(calls).containsExactly("pack", "memory", "pack");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> published() {
+        ArgumentCaptor<String> payloads = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate, atLeastOnce()).query(eq(CacheInvalidationBus.NOTIFY), any(ResultSetExtractor.class),
+                eq("school_cache"), payloads.capture());
+        return payloads.getAllValues();
+    }
+}
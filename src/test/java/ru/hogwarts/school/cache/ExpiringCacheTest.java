@@ -0,0 +1,125 @@
+package ru.hogwarts.school.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.hogwarts.school.model.CacheStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExpiringCacheTest {
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+    @Test
+    void get_TestCountsHitsAndMisses() {
+        ExpiringCache cache = new ExpiringCache("faculties", HOUR, 100, HOUR);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertThat(cache.get(1L, () -> "Огонь" + loads.incrementAndGet())).isEqualTo("Огонь1");
+        assertThat(cache.get(1L, () -> "Огонь" + loads.incrementAndGet())).isEqualTo("Огонь1");
+        assertThat(cache.get(1L, String.class)).isEqualTo("Огонь1");
+        assertThat(cache.get(2L)).isNull();
+
+        assertThat(loads).hasValue(1);
+        CacheStats stats = cache.getStats();
+        assertThat(stats.size()).isEqualTo(1);
+        assertThat(stats.hits()).isEqualTo(2);
+        assertThat(stats.misses()).isEqualTo(2);
+        assertThat(stats.hitRatio()).isEqualTo(0.5);
+    }
+
+    @Test
+    void get_TestMissesExpiredEntries() {
+        ExpiringCache cache = new ExpiringCache("faculties", 0, 100, HOUR);
+        cache.put(1L, "Огонь");
+
+        assertThat(cache.get(1L)).isNull();
+        assertThat(cache.getStats().size()).isZero();
+    }
+
+    @Test
+    void evict_TestCountsRemovedEntries() {
+        ExpiringCache cache = new ExpiringCache("students", HOUR, 100, HOUR);
+        cache.put(1L, "Иван");
+        cache.put(2L, "Марья");
+        cache.put(3L, "Пётр");
+
+        cache.evict(1L);
+        cache.evict(4L);
+        assertThat(cache.getStats().evictions()).isEqualTo(1);
+
+        cache.clear();
+        assertThat(cache.get(2L)).isNull();
+        assertThat(cache.getStats().evictions()).isEqualTo(3);
+    }
+
+    @Test
+    void evict_TestWaitsForCommit() {
+        ExpiringCache cache = new ExpiringCache("students", HOUR, 100, HOUR);
+        cache.put(1L, "Иван");
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.evict(1L);
+            assertThat(cache.get(1L, String.class)).isEqualTo("Иван");
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(cache.get(1L)).isNull();
+    }
+
+    @Test
+    void get_TestDoesNotStoreValueLoadedAcrossEviction() {
+        ExpiringCache cache = new ExpiringCache("students", HOUR, 100, HOUR);
+
+        String loaded = cache.get(1L, () -> {
+            // The row changes and is evicted while the old one is still being read.
+            cache.evict(1L);
+            return "Иван";
+        });
+
+        assertThat(loaded).isEqualTo("Иван");
+        assertThat(cache.get(1L)).isNull();
+        assertThat(cache.get(1L, () -> "Иван Грозный")).isEqualTo("Иван Грозный");
+        assertThat(cache.get(1L, String.class)).isEqualTo("Иван Грозный");
+        assertThat(cache.get(2L, () -> (String) null)).isNull();
+        assertThat(cache.getStats().loads()).isEqualTo(3);
+    }
+
+    @Test
+    void put_TestIsNotHeldBackByAnEarlierFailedLoad() {
+        ExpiringCache cache = new ExpiringCache("faculty-pages", HOUR, 100, HOUR);
+
+        assertThatThrownBy(() -> cache.get(1L, () -> {
+            throw new IllegalStateException("Нет соединения");
+        })).isInstanceOf(Cache.ValueRetrievalException.class);
+        cache.evict(2L);
+        // A load that failed leaves nothing behind to hold back later writes.
+        cache.put(1L, "Новая страница");
+        assertThat(cache.get(1L, String.class)).isEqualTo("Новая страница");
+        assertThat(cache.get(1L, () -> "Старая страница")).isEqualTo("Новая страница");
+    }
+
+    @Test
+    void put_TestStaysWithinMaxEntriesByDroppingTheOldest() throws Exception {
+        ExpiringCache cache = new ExpiringCache("students", HOUR, 10, HOUR);
+        for (long id = 0; id < 25; id++) {
+            cache.put(id, "Студент " + id);
+            assertThat(cache.getStats().size()).isLessThanOrEqualTo(10);
+            // Entries put within the same nanosecond tie on age.
+            Thread.sleep(1);
+        }
+        assertThat(cache.get(14L)).isNull();
+        for (long id = 16; id < 25; id++) {
+            assertThat(cache.get(id)).isNotNull();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ru.hogwarts.school.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+    private static final int CALLERS = 50;
+
+    @Test
+    void load_TestCollapsesConcurrentCallers() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(TimeUnit.SECONDS.toNanos(10));
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch arrived = new CountDownLatch(CALLERS);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(executor.submit(() -> {
+                    arrived.countDown();
+                    return singleFlight.load(1L, () -> {
+                        loads.incrementAndGet();
+                        release.await();
+                        return "Иван";
+                    });
+                }));
+            }
+            arrived.await();
+            // Give the last callers time to reach the in-flight load before it completes.
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<Object> result : results) {
+                assertThat(result.get()).isEqualTo("Иван");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(loads).hasValue(1);
+        assertThat(singleFlight.getCollapsed()).isEqualTo(CALLERS - 1);
+    }
+
+    @Test
+    void load_TestSharesFailure() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(TimeUnit.SECONDS.toNanos(10));
+        assertThatThrownBy(() -> singleFlight.load(1L, () -> {
+            throw new IllegalStateException("database is down");
+        })).isInstanceOf(IllegalStateException.class);
+
+        // A failed load is not remembered.
+        assertThat(singleFlight.load(1L, () -> "Иван")).isEqualTo("Иван");
+        assertThat(singleFlight.getLoads()).isEqualTo(2);
+    }
+
+    @Test
+    void load_TestStartsFreshLoadAfterTimeout() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(TimeUnit.MILLISECONDS.toNanos(50));
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> singleFlight.load(1L, () -> {
+                started.countDown();
+                stuck.await();
+                return "старое";
+            }));
+            started.await();
+
+            assertThat(singleFlight.load(1L, () -> "новое")).isEqualTo("новое");
+            assertThat(singleFlight.getTimeouts()).isEqualTo(1);
+            assertThat(singleFlight.getLoads()).isEqualTo(2);
+        } finally {
+            stuck.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
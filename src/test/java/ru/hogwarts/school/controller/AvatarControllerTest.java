@@ -0,0 +1,84 @@
+package ru.hogwarts.school.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import ru.hogwarts.school.SqlStatementRecorder;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarPreview;
+import ru.hogwarts.school.model.AvatarView;
+import ru.hogwarts.school.model.PreviewStatus;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.AvatarPreviewRepository;
+import ru.hogwarts.school.repository.AvatarRepository;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties =
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=ru.hogwarts.school.SqlStatementRecorder")
+public class AvatarControllerTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @Autowired
+    private AvatarRepository avatarRepository;
+
+    @Autowired
+    private AvatarPreviewRepository avatarPreviewRepository;
+
+    private String baseUrl;
+    private Student testStudent;
+
+    @BeforeEach
+    void setUp() {
+        baseUrl = "http://localhost:" + port + "/avatar";
+
+        testStudent = studentRepository.save(new Student(null, "Иван", 20));
+        String contentHash = "test-" + testStudent.getId();
+        avatarPreviewRepository.save(new AvatarPreview(null, contentHash, 128, "image/png", 64 * 1024));
+
+        Avatar avatar = new Avatar(null, "/avatars/" + contentHash, 1024 * 1024, "image/png", testStudent);
+        avatar.setContentHash(contentHash);
+        avatar.setPreviewStatus(PreviewStatus.READY);
+        avatarRepository.save(avatar);
+    }
+
+    @Test
+    void getAllAvatars_TestReturnsMetadataOnly() throws Exception {
+        SqlStatementRecorder.clear();
+
+        ResponseEntity<List<AvatarView>> response = restTemplate.exchange(
+                baseUrl + "?sort=-id&limit=100",
+                HttpMethod.GET,
+                null,
+                new ParameterizedTypeReference<List<AvatarView>>() {
+                });
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody())
+                .anySatisfy(view -> assertThat(view.previewUrl())
+                        .isEqualTo("/avatar/" + testStudent.getId() + "/avatar/preview"));
+        assertThat(SqlStatementRecorder.getStatements())
+                .isNotEmpty()
+                .noneMatch(sql -> sql.contains("avatar_preview"))
+                .noneMatch(sql -> sql.matches("(?is).*\\bdata\\b.*"))
+                .noneMatch(sql -> sql.matches("(?is).*\\bfrom\\s+student\\b.*"));
+    }
+}
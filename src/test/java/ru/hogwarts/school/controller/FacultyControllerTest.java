@@ -1,5 +1,6 @@
 package ru.hogwarts.school.controller;
 
+import jakarta.persistence.EntityManagerFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,9 +11,14 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import ru.hogwarts.school.StatementCounter;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.FacultyStudentStats;
+import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.repository.StudentRepository;
 
 import java.util.Collection;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -27,6 +33,16 @@ public class FacultyControllerTest {
 
     @Autowired
     private TestRestTemplate restTemplate;
+
+    @Autowired
+    private FacultyRepository facultyRepository;
+
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
     private String baseUrl;
     private Faculty testFaculty;
 
@@ -110,6 +126,28 @@ public class FacultyControllerTest {
         assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
 
+    @Test
+    void facultiesBatch_Test() throws Exception {
+        ResponseEntity<List<Faculty>> created = restTemplate.exchange(baseUrl + "/batch", HttpMethod.POST,
+                new HttpEntity<>(List.of(new Faculty(null, "Огонь", "Красный"), new Faculty(null, "Вода", "Синий"))),
+                new ParameterizedTypeReference<List<Faculty>>() {
+                });
+        assertThat(created.getStatusCode()).isEqualTo(HttpStatus.OK);
+        List<Faculty> faculties = created.getBody();
+        assertThat(faculties).extracting(Faculty::getId).doesNotContainNull();
+
+        faculties.forEach(faculty -> faculty.setColor("Золотой"));
+        ResponseEntity<List<Faculty>> edited = restTemplate.exchange(baseUrl + "/batch", HttpMethod.PUT,
+                new HttpEntity<>(faculties), new ParameterizedTypeReference<List<Faculty>>() {
+                });
+        assertThat(edited.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(edited.getBody()).extracting(Faculty::getColor).containsOnly("Золотой");
+
+        List<Long> ids = faculties.stream().map(Faculty::getId).toList();
+        restTemplate.exchange(baseUrl + "/batch", HttpMethod.DELETE, new HttpEntity<>(ids), Void.class);
+        assertThat(facultyRepository.findAllById(ids)).isEmpty();
+    }
+
     @Test
     void getByFacultyOrColor_Test() throws Exception {
         Faculty created = restTemplate.postForObject(baseUrl, testFaculty, Faculty.class);
@@ -129,6 +167,19 @@ public class FacultyControllerTest {
                 .anySatisfy(f -> assertThat(f.getName()).contains("Металл"));
     }
 
+    @Test
+    void searchFaculties_TestFindsByPrefixAndTypo() throws Exception {
+        Faculty created = restTemplate.postForObject(baseUrl, new Faculty(null, "Когтевран", "Синий"), Faculty.class);
+
+        for (String query : List.of("когте", "Когтеврн")) {
+            ResponseEntity<List<Faculty>> response = restTemplate.exchange(baseUrl + "/search?q=" + query,
+                    HttpMethod.GET, null, new ParameterizedTypeReference<List<Faculty>>() {
+                    });
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+            assertThat(response.getBody()).extracting(Faculty::getId).contains(created.getId());
+        }
+    }
+
     @Test
     void getStudentsByFaculty_Test() throws Exception {
         Faculty created = restTemplate.postForObject(baseUrl, testFaculty, Faculty.class);
@@ -148,5 +199,48 @@ public class FacultyControllerTest {
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(response.getBody()).isNotNull();
     }
-}
 
+    @Test
+    void getFacultyStats_Test() throws Exception {
+        Faculty faculty = restTemplate.postForObject(baseUrl, new Faculty(null, "Огонь", "Красный"), Faculty.class);
+        restTemplate.postForObject("/student", new Student(null, "Иван", 18, faculty), Student.class);
+        restTemplate.postForObject("/student", new Student(null, "Марья", 21, faculty), Student.class);
+
+        ResponseEntity<List<FacultyStudentStats>> response = restTemplate.exchange(baseUrl + "/stats", HttpMethod.GET,
+                null, new ParameterizedTypeReference<List<FacultyStudentStats>>() {
+                });
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).contains(
+                new FacultyStudentStats(faculty.getId(), "Огонь", "Красный", 2, 19.5));
+    }
+
+    @Test
+    void getStudentsByFaculty_TestNoQueryPerStudent() throws Exception {
+        Faculty small = facultyRepository.save(new Faculty(null, "Малый", "Серый"));
+        Faculty large = facultyRepository.save(new Faculty(null, "Большой", "Белый"));
+        studentRepository.save(new Student(null, "Иван", 19, small));
+        for (int i = 0; i < 6; i++) {
+            studentRepository.save(new Student(null, "Иван", 19, large));
+        }
+
+        new StatementCounter(entityManagerFactory).assertIndependentOfResultSize(
+                () -> getOk(baseUrl + "/" + small.getId() + "/students"),
+                () -> getOk(baseUrl + "/" + large.getId() + "/students"));
+    }
+
+    @Test
+    void findAllFaculties_TestNoQueryPerFaculty() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            facultyRepository.save(new Faculty(null, "Факультет " + i, "Цвет " + i));
+        }
+
+        new StatementCounter(entityManagerFactory).assertIndependentOfResultSize(
+                () -> getOk(baseUrl + "?sort=-id&limit=1"),
+                () -> getOk(baseUrl + "?sort=-id&limit=6"));
+    }
+
+    private void getOk(String url) {
+        assertThat(restTemplate.getForEntity(url, String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+}
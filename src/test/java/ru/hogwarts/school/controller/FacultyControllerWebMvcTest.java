@@ -1,27 +1,45 @@
 package ru.hogwarts.school.controller;
 
 import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import ru.hogwarts.school.cache.CacheConfig;
+import ru.hogwarts.school.model.CollectionCounter;
+import ru.hogwarts.school.model.CollectionVersion;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.CollectionCounterRepository;
 import ru.hogwarts.school.repository.FacultyRepository;
 import ru.hogwarts.school.repository.StudentRepository;
 import ru.hogwarts.school.service.FacultyService;
+import ru.hogwarts.school.service.VersionedUpdater;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -42,12 +60,33 @@ public class FacultyControllerWebMvcTest {
     @MockitoBean
     private StudentRepository studentRepository;
 
+    @MockitoBean
+    private VersionedUpdater versionedUpdater;
+
+    @MockitoBean
+    private CollectionCounterRepository collectionCounterRepository;
+
     @MockitoSpyBean
     private FacultyService facultyService;
 
     @Autowired
     private FacultyController facultyController;
 
+    @Autowired
+    private CacheConfig.ExpiringCacheManager cacheManager;
+
+    @BeforeEach
+    void clearCaches() {
+        // The repositories are mocked per test, so nothing cached by an earlier test may be served.
+        cacheManager.clearAll();
+    }
+
+    @BeforeEach
+    void stubCollectionVersions() {
+        when(collectionCounterRepository.findVersion(CollectionCounter.FACULTIES)).thenReturn(new CollectionVersion(1));
+        when(collectionCounterRepository.findVersion(CollectionCounter.STUDENTS)).thenReturn(new CollectionVersion(2));
+    }
+
     @Test
     void createFaculty_Test() throws Exception {
 
@@ -91,6 +130,75 @@ public class FacultyControllerWebMvcTest {
                 .andExpect(jsonPath("$.color").value(color));
     }
 
+    @Test
+    void findFaculty_TestServedFromCacheUntilEdited() throws Exception {
+        when(facultyRepository.findById(id))
+                .thenReturn(Optional.of(new Faculty(id, name, color)))
+                .thenReturn(Optional.of(new Faculty(id, "Вода", color)));
+        when(versionedUpdater.update(eq(Faculty.class), eq(id), isNull(), anyMap(), eq(CollectionCounter.FACULTIES))).thenReturn(1);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/faculty/1")).andExpect(status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.get("/faculty/1")).andExpect(status().isOk());
+        verify(facultyRepository, times(1)).findById(id);
+
+        JSONObject facultyJson = new JSONObject();
+        facultyJson.put("id", id);
+        facultyJson.put("name", "Вода");
+        facultyJson.put("color", color);
+        mockMvc.perform(MockMvcRequestBuilders
+                        .put("/faculty")
+                        .content(facultyJson.toString())
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+        // The edit reads the row back once it is updated.
+        verify(facultyRepository, times(2)).findById(id);
+        mockMvc.perform(MockMvcRequestBuilders.get("/faculty/1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Вода"));
+        verify(facultyRepository, times(3)).findById(id);
+    }
+
+    @Test
+    void findFaculty_TestNotModifiedUntilVersionChanges() throws Exception {
+        Faculty testFaculty = new Faculty(id, name, color);
+        testFaculty.setVersion(3);
+        when(facultyRepository.findById(id)).thenReturn(Optional.of(testFaculty));
+
+        String eTag = mockMvc.perform(MockMvcRequestBuilders.get("/faculty/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(MockMvcRequestBuilders.get("/faculty/1").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        testFaculty.setVersion(4);
+        cacheManager.clearAll();
+        mockMvc.perform(MockMvcRequestBuilders.get("/faculty/1").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value(name));
+    }
+
+    @Test
+    void findAllFaculties_TestNotModifiedSkipsFetch() throws Exception {
+        when(facultyRepository.findBy(ArgumentMatchers.<Specification<Faculty>>any(), any()))
+                .thenReturn(List.of(new Faculty(id, name, color)));
+
+        String eTag = mockMvc.perform(MockMvcRequestBuilders.get("/faculty"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        cacheManager.getCache(CacheConfig.FACULTY_PAGES).invalidate();
+        mockMvc.perform(MockMvcRequestBuilders.get("/faculty").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+        verify(facultyRepository, times(1)).findBy(ArgumentMatchers.<Specification<Faculty>>any(), any());
+
+        when(collectionCounterRepository.findVersion(CollectionCounter.FACULTIES)).thenReturn(new CollectionVersion(3));
+        cacheManager.getCache(CacheConfig.VERSIONS).invalidate();
+        mockMvc.perform(MockMvcRequestBuilders.get("/faculty").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(id));
+    }
+
     @Test
     void findFaculty_TestNotExist() throws Exception {
         Faculty testFaculty = new Faculty();
@@ -117,8 +225,8 @@ public class FacultyControllerWebMvcTest {
         testFaculty.setName(name);
         testFaculty.setColor(color);
 
-        when(facultyRepository.existsById(any(Long.class))).thenReturn(true);
-        when(facultyRepository.save(any(Faculty.class))).thenReturn(testFaculty);
+        when(versionedUpdater.update(eq(Faculty.class), eq(id), isNull(), anyMap(), eq(CollectionCounter.FACULTIES))).thenReturn(1);
+        when(facultyRepository.findById(id)).thenReturn(Optional.of(testFaculty));
 
         mockMvc.perform(MockMvcRequestBuilders
                         .put("/faculty")
@@ -138,7 +246,7 @@ public class FacultyControllerWebMvcTest {
         facultyJson.put("name", name);
         facultyJson.put("color", color);
 
-        when(facultyRepository.existsById(any(Long.class))).thenReturn(false);
+        when(versionedUpdater.update(eq(Faculty.class), eq(id), isNull(), anyMap(), eq(CollectionCounter.FACULTIES))).thenReturn(0);
 
         mockMvc.perform(MockMvcRequestBuilders
                         .put("/faculty")
@@ -148,6 +256,19 @@ public class FacultyControllerWebMvcTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    void patchFaculty_TestStaleIfMatch() throws Exception {
+        when(versionedUpdater.update(eq(Faculty.class), eq(id), eq(2L), eq(Map.of("color", "Синий")), eq(CollectionCounter.FACULTIES))).thenReturn(0);
+        when(facultyRepository.existsById(id)).thenReturn(true);
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .patch("/faculty/1")
+                        .header(HttpHeaders.IF_MATCH, "\"f2\"")
+                        .content("{\"color\": \"Синий\"}")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPreconditionFailed());
+    }
+
     @Test
     void deleteFaculty_Test() throws Exception {
 
@@ -167,7 +288,7 @@ public class FacultyControllerWebMvcTest {
         f2.setId(2L);
         f2.setName("Металл");
 
-        when(facultyRepository.findAll()).thenReturn(Arrays.asList(f1, f2));
+        when(facultyRepository.findBy(ArgumentMatchers.<Specification<Faculty>>any(), any())).thenReturn(Arrays.asList(f1, f2));
 
         mockMvc.perform(MockMvcRequestBuilders
                         .get("/faculty")
@@ -186,8 +307,7 @@ public class FacultyControllerWebMvcTest {
         testFaculty.setName(name);
         testFaculty.setColor(color);
 
-        when(facultyRepository.findByNameIgnoreCaseOrColorIgnoreCase(
-                "Ультро", "Ультро")).thenReturn(Arrays.asList(testFaculty));
+        when(facultyRepository.findAll()).thenReturn(Arrays.asList(testFaculty));
 
         mockMvc.perform(MockMvcRequestBuilders
                 .get("/faculty/")
@@ -211,8 +331,7 @@ public class FacultyControllerWebMvcTest {
         testStudent.setName("Иван");
         testStudent.setFaculty(testFaculty);
 
-        when(facultyRepository.findById(id)).thenReturn(Optional.of(testFaculty));
-        when(studentRepository.findByFaculty(testFaculty)).thenReturn(Arrays.asList(testStudent));
+        when(studentRepository.findByFacultyId(id)).thenReturn(Arrays.asList(testStudent));
 
         mockMvc.perform(MockMvcRequestBuilders
                 .get("/faculty/1/students")
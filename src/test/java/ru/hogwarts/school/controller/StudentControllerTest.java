@@ -1,23 +1,46 @@
 package ru.hogwarts.school.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManagerFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import ru.hogwarts.school.SqlStatementRecorder;
+import ru.hogwarts.school.StatementCounter;
+import ru.hogwarts.school.cache.CacheConfig;
+import ru.hogwarts.school.model.Avatar;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.AvatarRepository;
 import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.repository.StudentRepository;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties =
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=ru.hogwarts.school.SqlStatementRecorder")
 public class StudentControllerTest {
 
     @LocalServerPort
@@ -29,6 +52,21 @@ public class StudentControllerTest {
     @Autowired
     private FacultyRepository facultyRepository;
 
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @Autowired
+    private AvatarRepository avatarRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CacheConfig.ExpiringCacheManager cacheManager;
+
     private String baseUrl;
     private Student testStudent;
     private Faculty testFaculty;
@@ -68,6 +106,49 @@ public class StudentControllerTest {
         assertThat(response.getBody().getName()).isEqualTo("Иван");
     }
 
+    @Test
+    void findStudent_TestThunderingHerdSharesOneQuery() throws Exception {
+        Student created = restTemplate.postForObject(baseUrl, testStudent, Student.class);
+        String url = baseUrl + "/" + created.getId();
+        StatementCounter counter = new StatementCounter(entityManagerFactory);
+        cacheManager.clearAll();
+        long oneLoad = counter.count(() -> restTemplate.getForEntity(url, Student.class));
+
+        int herd = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(herd);
+        try {
+            for (int round = 0; round < 5; round++) {
+                cacheManager.clearAll();
+                long statements = counter.count(() -> getConcurrently(executor, herd, url));
+                assertThat(statements).as("statements for %d concurrent requests", herd).isEqualTo(oneLoad);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends the same request from many threads at once and waits for all the answers.
+     */
+    private void getConcurrently(ExecutorService executor, int requests, String url) {
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<ResponseEntity<Student>>> responses = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            responses.add(executor.submit(() -> {
+                go.await();
+                return restTemplate.getForEntity(url, Student.class);
+            }));
+        }
+        go.countDown();
+        try {
+            for (Future<ResponseEntity<Student>> response : responses) {
+                assertThat(response.get().getBody().getName()).isEqualTo("Иван");
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Test
     void findStudent_TestNotExist() throws Exception {
         ResponseEntity<Student> response = restTemplate.getForEntity(baseUrl + "/999", Student.class);
@@ -82,13 +163,39 @@ public class StudentControllerTest {
         ResponseEntity<Student> response = restTemplate.exchange(
                 baseUrl,
                 HttpMethod.PUT,
-                new org.springframework.http.HttpEntity<>(created),
+                new HttpEntity<>(created),
                 Student.class);
 
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(response.getBody().getName()).isEqualTo("Марья");
     }
 
+    @Test
+    void editStudent_TestIfMatchRejectsLostUpdate() throws Exception {
+        Student created = restTemplate.postForObject(baseUrl, testStudent, Student.class);
+        String readTag = restTemplate.getForEntity(baseUrl + "/" + created.getId(), Student.class)
+                .getHeaders().getETag();
+        HttpHeaders ifMatch = new HttpHeaders();
+        ifMatch.setIfMatch(readTag);
+        created.setName("Марья");
+        List<ResponseEntity<Student>> responses = new ArrayList<>();
+
+        long statements = new StatementCounter(entityManagerFactory).count(() -> responses.add(restTemplate.exchange(
+                baseUrl, HttpMethod.PUT, new HttpEntity<>(created, ifMatch), Student.class)));
+
+        assertThat(responses.get(0).getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responses.get(0).getHeaders().getETag()).isNotEqualTo(readTag);
+        // The conditional update and the read back of the result, nothing more.
+        assertThat(statements).isLessThanOrEqualTo(2);
+
+        created.setName("Дарья");
+        ResponseEntity<Student> stale = restTemplate.exchange(baseUrl, HttpMethod.PUT,
+                new HttpEntity<>(created, ifMatch), Student.class);
+
+        assertThat(stale.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        assertThat(studentRepository.findById(created.getId())).get().extracting(Student::getName).isEqualTo("Марья");
+    }
+
     @Test
     void deleteStudent_Test() throws Exception {
         Student created = restTemplate.postForObject(baseUrl, testStudent, Student.class);
@@ -100,6 +207,70 @@ public class StudentControllerTest {
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
 
+    @Test
+    void createStudents_TestInsertsInBatches() throws Exception {
+        List<Student> students = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            students.add(new Student(null, "Иван " + i, 20, testFaculty));
+        }
+        List<ResponseEntity<List<Student>>> responses = new ArrayList<>();
+
+        long statements = new StatementCounter(entityManagerFactory).count(() -> responses.add(restTemplate.exchange(
+                baseUrl + "/batch", HttpMethod.POST, new HttpEntity<>(students),
+                new ParameterizedTypeReference<List<Student>>() {
+                })));
+
+        assertThat(responses.get(0).getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responses.get(0).getBody()).hasSize(1000)
+                .extracting(Student::getId).doesNotContainNull().doesNotHaveDuplicates();
+        assertThat(statements).isLessThanOrEqualTo(5);
+    }
+
+    @Test
+    void editStudents_Test() throws Exception {
+        Student first = restTemplate.postForObject(baseUrl, testStudent, Student.class);
+        Student second = restTemplate.postForObject(baseUrl, testStudent, Student.class);
+        first.setName("Марья");
+        second.setAge(21);
+
+        ResponseEntity<List<Student>> response = restTemplate.exchange(baseUrl + "/batch", HttpMethod.PUT,
+                new HttpEntity<>(List.of(first, second)), new ParameterizedTypeReference<List<Student>>() {
+                });
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(studentRepository.findById(first.getId()).orElseThrow().getName()).isEqualTo("Марья");
+        assertThat(studentRepository.findById(second.getId()).orElseThrow().getAge()).isEqualTo(21);
+    }
+
+    @Test
+    void editStudents_TestChangesNothingWhenOneIsMissing() throws Exception {
+        Student created = restTemplate.postForObject(baseUrl, testStudent, Student.class);
+        created.setName("Марья");
+        Student missing = new Student(-1L, "Пётр", 30);
+
+        ResponseEntity<String> response = restTemplate.exchange(baseUrl + "/batch", HttpMethod.PUT,
+                new HttpEntity<>(List.of(created, missing)), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(studentRepository.findById(created.getId()).orElseThrow().getName()).isEqualTo("Иван");
+    }
+
+    @Test
+    void deleteStudents_Test() throws Exception {
+        Student first = restTemplate.postForObject(baseUrl, testStudent, Student.class);
+        Student second = restTemplate.postForObject(baseUrl, testStudent, Student.class);
+        Avatar avatar = new Avatar(null, null, 1024, "image/png", first);
+        avatar.setContentHash("batch-delete-" + first.getId());
+        avatarRepository.save(avatar);
+
+        ResponseEntity<Void> response = restTemplate.exchange(baseUrl + "/batch", HttpMethod.DELETE,
+                new HttpEntity<>(List.of(first.getId(), second.getId())), Void.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(studentRepository.findExistingIds(List.of(first.getId(), second.getId()))).isEmpty();
+        assertThat(avatarRepository.findByStudentId(first.getId())).isEmpty();
+    }
+
     @Test
     void findAllStudent_Test() throws Exception {
         restTemplate.patchForObject(baseUrl, testStudent, Student.class);
@@ -109,6 +280,194 @@ public class StudentControllerTest {
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
     }
 
+    @Test
+    void findAllStudent_TestCursorWalksPagesInOrder() throws Exception {
+        List<Long> created = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            created.add(restTemplate.postForObject(baseUrl, testStudent, Student.class).getId());
+        }
+        Collections.reverse(created);
+
+        List<Long> seen = new ArrayList<>();
+        String url = baseUrl + "?sort=-id&limit=2";
+        for (int page = 0; page < 3; page++) {
+            ResponseEntity<List<Student>> response = restTemplate.exchange(url, HttpMethod.GET, null,
+                    new ParameterizedTypeReference<List<Student>>() {
+                    });
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+            assertThat(response.getBody()).hasSizeLessThanOrEqualTo(2);
+            response.getBody().forEach(student -> seen.add(student.getId()));
+            String link = response.getHeaders().getFirst(HttpHeaders.LINK);
+            assertThat(link).endsWith("; rel=\"next\"");
+            url = link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+        }
+
+        assertThat(seen).startsWith(created.toArray(new Long[0])).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void findAllStudent_TestStatementCountDoesNotGrowWithPageSize() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            Student student = studentRepository.save(new Student(null, "Иван", 20));
+            Avatar avatar = new Avatar(null, null, 1024, "image/png", student);
+            avatar.setContentHash("count-" + student.getId());
+            avatarRepository.save(avatar);
+        }
+
+        int onePage = countStatements(baseUrl + "?sort=-id&limit=1");
+        int sixPage = countStatements(baseUrl + "?sort=-id&limit=6");
+
+        assertThat(sixPage).isEqualTo(onePage);
+        assertThat(SqlStatementRecorder.getStatements()).noneMatch(sql -> sql.contains("avatar"));
+    }
+
+    @Test
+    void findAllStudent_TestNoQueryPerFaculty() throws Exception {
+        createStudentsWithOwnFaculty(6, 20);
+
+        new StatementCounter(entityManagerFactory).assertIndependentOfResultSize(
+                () -> getOk(baseUrl + "?sort=-id&limit=1"),
+                () -> getOk(baseUrl + "?sort=-id&limit=6"));
+    }
+
+    @Test
+    void getStudentsByAgeBetween_TestNoQueryPerFaculty() throws Exception {
+        createStudentsWithOwnFaculty(6, 700);
+
+        new StatementCounter(entityManagerFactory).assertIndependentOfResultSize(
+                () -> getOk(baseUrl + "/?minAge=700&maxAge=700"),
+                () -> getOk(baseUrl + "/?minAge=700&maxAge=705"));
+    }
+
+    private void createStudentsWithOwnFaculty(int count, int firstAge) {
+        for (int i = 0; i < count; i++) {
+            Faculty faculty = facultyRepository.save(new Faculty(null, "Факультет " + i, "Цвет " + i));
+            studentRepository.save(new Student(null, "Иван", firstAge + i, faculty));
+        }
+    }
+
+    private void getOk(String url) {
+        assertThat(restTemplate.getForEntity(url, String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    private int countStatements(String url) {
+        SqlStatementRecorder.clear();
+        ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        return SqlStatementRecorder.getStatements().size();
+    }
+
+    @Test
+    void findAllStudent_TestRejectsUnknownSortAndBadCursor() throws Exception {
+        assertThat(restTemplate.getForEntity(baseUrl + "?sort=avatar", String.class).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(restTemplate.getForEntity(baseUrl + "?cursor=not-a-cursor", String.class).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void exportStudents_TestWritesOneJsonLinePerStudent() throws Exception {
+        Student created = restTemplate.postForObject(baseUrl, testStudent, Student.class);
+
+        ResponseEntity<String> response = restTemplate.getForEntity(baseUrl + "/export", String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_NDJSON);
+        List<Student> exported = new ArrayList<>();
+        for (String line : response.getBody().split("\n")) {
+            exported.add(objectMapper.readValue(line, Student.class));
+        }
+        assertThat(exported).hasSize(studentRepository.countAllStudents());
+        assertThat(exported).anySatisfy(student -> {
+            assertThat(student.getId()).isEqualTo(created.getId());
+            assertThat(student.getFaculty().getId()).isEqualTo(testFaculty.getId());
+        });
+    }
+
+    @Test
+    void statistics_TestFollowWritesWithoutScanningTheTable() throws Exception {
+        restTemplate.getForObject(baseUrl + "/count", Integer.class);
+        Student created = restTemplate.postForObject(baseUrl, testStudent, Student.class);
+
+        SqlStatementRecorder.clear();
+        int count = restTemplate.getForObject(baseUrl + "/count", Integer.class);
+        double avg = restTemplate.getForObject(baseUrl + "/avg", Double.class);
+        ResponseEntity<List<Student>> last = restTemplate.exchange(baseUrl + "/last", HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<Student>>() {
+                });
+
+        assertThat(SqlStatementRecorder.getStatements()).isEmpty();
+        assertThat(count).isEqualTo(studentRepository.countAllStudents());
+        assertThat(avg).isEqualTo(studentRepository.countAvgAllStudents(), within(1e-9));
+        assertThat(last.getBody()).first().satisfies(student -> {
+            assertThat(student.getId()).isEqualTo(created.getId());
+            assertThat(student.getFaculty().getName()).isEqualTo("Стихия");
+        });
+
+        restTemplate.delete(baseUrl + "/" + created.getId());
+
+        assertThat(restTemplate.getForObject(baseUrl + "/count", Integer.class)).isEqualTo(count - 1);
+        assertThat(restTemplate.exchange(baseUrl + "/last", HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<Student>>() {
+                }).getBody()).extracting(Student::getId).doesNotContain(created.getId());
+    }
+
+    @Test
+    void statistics_TestFollowConditionalUpdates() throws Exception {
+        Student created = restTemplate.postForObject(baseUrl, testStudent, Student.class);
+        restTemplate.getForObject(baseUrl + "/avg", Double.class);
+        created.setName("Марья");
+        created.setAge(901);
+
+        restTemplate.put(baseUrl, created);
+
+        assertThat(restTemplate.exchange(baseUrl + "/last", HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<Student>>() {
+                }).getBody()).first().extracting(Student::getName).isEqualTo("Марья");
+        // The bulk update raises no Hibernate events, so the tallies catch up with a reconcile shortly after.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Integer.valueOf(901).equals(restTemplate.getForObject(baseUrl + "/age/percentile?p=100", Integer.class))) {
+            assertThat(System.nanoTime()).as("statistics caught up with the update").isLessThan(deadline);
+            Thread.sleep(50);
+        }
+        assertThat(restTemplate.getForObject(baseUrl + "/avg", Double.class))
+                .isEqualTo(studentRepository.countAvgAllStudents(), within(1e-9));
+    }
+
+    @Test
+    void getAgePercentile_Test() throws Exception {
+        testStudent.setAge(900);
+        restTemplate.postForObject(baseUrl, testStudent, Student.class);
+
+        assertThat(restTemplate.getForObject(baseUrl + "/age/percentile?p=100", Integer.class)).isEqualTo(900);
+        assertThat(restTemplate.getForEntity(baseUrl + "/age/percentile?p=0", String.class).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void searchStudents_TestFollowsEdits() throws Exception {
+        testStudent.setName("Невилл Долгопупс");
+        Student created = restTemplate.postForObject(baseUrl, testStudent, Student.class);
+        ParameterizedTypeReference<List<Student>> students = new ParameterizedTypeReference<>() {
+        };
+
+        ResponseEntity<List<Student>> response = restTemplate.exchange(baseUrl + "/search?q=долгопупс",
+                HttpMethod.GET, null, students);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).first().satisfies(student -> {
+            assertThat(student.getId()).isEqualTo(created.getId());
+            assertThat(student.getFaculty().getName()).isEqualTo("Стихия");
+        });
+
+        created.setName("Луна Лавгуд");
+        restTemplate.put(baseUrl, created);
+
+        assertThat(restTemplate.exchange(baseUrl + "/search?q=лавгуд", HttpMethod.GET, null, students).getBody())
+                .extracting(Student::getId).contains(created.getId());
+        assertThat(restTemplate.exchange(baseUrl + "/search?q=долгопупс", HttpMethod.GET, null, students).getBody())
+                .extracting(Student::getId).doesNotContain(created.getId());
+    }
+
     @Test
     void getStudentsByAgeBetween_Test() throws Exception {
         restTemplate.patchForObject(baseUrl, testStudent, Student.class);
@@ -1,26 +1,43 @@
 package ru.hogwarts.school.controller;
 
 import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import ru.hogwarts.school.cache.CacheConfig;
+import ru.hogwarts.school.model.CollectionCounter;
+import ru.hogwarts.school.model.CollectionVersion;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentState;
+import ru.hogwarts.school.repository.CollectionCounterRepository;
 import ru.hogwarts.school.repository.StudentRepository;
 import ru.hogwarts.school.service.StudentService;
+import ru.hogwarts.school.service.VersionedUpdater;
 
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Optional;
 
+import static org.hamcrest.Matchers.not;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -38,12 +55,32 @@ public class StudentControllerWebMvcTest {
     @MockitoBean
     private StudentRepository studentRepository;
 
+    @MockitoBean
+    private VersionedUpdater versionedUpdater;
+
+    @MockitoBean
+    private CollectionCounterRepository collectionCounterRepository;
+
     @MockitoSpyBean
     private StudentService studentService;
 
     @Autowired
     private StudentController studentController;
 
+    @Autowired
+    private CacheConfig.ExpiringCacheManager cacheManager;
+
+    @BeforeEach
+    void clearCaches() {
+        // The repositories are mocked per test, so nothing cached by an earlier test may be served.
+        cacheManager.clearAll();
+    }
+
+    @BeforeEach
+    void stubCollectionVersion() {
+        when(collectionCounterRepository.findVersion(CollectionCounter.STUDENTS)).thenReturn(new CollectionVersion(2));
+    }
+
     @Test
     void createStudent_Test() throws Exception {
 
@@ -87,6 +124,26 @@ public class StudentControllerWebMvcTest {
                 .andExpect(jsonPath("$.age").value(age));
     }
 
+    @Test
+    void findStudent_TestETagFollowsFacultyVersion() throws Exception {
+        Faculty testFaculty = new Faculty(2L, "Стихия", "Серый");
+        Student testStudent = new Student(id, name, age, testFaculty);
+        when(studentRepository.findById(id)).thenReturn(Optional.of(testStudent));
+
+        String eTag = mockMvc.perform(MockMvcRequestBuilders.get("/student/1"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(MockMvcRequestBuilders.get("/student/1").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        // Renaming the faculty changes the student's body without touching the student row.
+        testFaculty.setVersion(1);
+        cacheManager.clearAll();
+        mockMvc.perform(MockMvcRequestBuilders.get("/student/1").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, not(eTag)));
+    }
+
     @Test
     void findStudent_TestNotExist() throws Exception {
         Student testStudent = new Student();
@@ -113,8 +170,10 @@ public class StudentControllerWebMvcTest {
         testStudent.setName(name);
         testStudent.setAge(age);
 
-        when(studentRepository.existsById(any(Long.class))).thenReturn(true);
-        when(studentRepository.save(any(Student.class))).thenReturn(testStudent);
+        when(studentRepository.findStateById(id)).thenReturn(Optional.of(new StudentState(name, 19, null, 5)));
+        when(versionedUpdater.update(eq(Student.class), eq(id), eq(5L), anyMap(), eq(CollectionCounter.STUDENTS)))
+                .thenReturn(1);
+        when(studentRepository.findById(id)).thenReturn(Optional.of(testStudent));
 
         mockMvc.perform(MockMvcRequestBuilders
                         .put("/student")
@@ -134,7 +193,7 @@ public class StudentControllerWebMvcTest {
         studentJson.put("name", name);
         studentJson.put("age", age);
 
-        when(studentRepository.existsById(any(Long.class))).thenReturn(false);
+        when(studentRepository.findStateById(id)).thenReturn(Optional.empty());
 
         mockMvc.perform(MockMvcRequestBuilders
                         .put("/student")
@@ -142,6 +201,56 @@ public class StudentControllerWebMvcTest {
                         .contentType(MediaType.APPLICATION_JSON)
                         .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isNotFound());
+        verify(versionedUpdater, never()).update(any(), any(), any(), anyMap(), any());
+    }
+
+    @Test
+    void editStudent_TestStaleIfMatch() throws Exception {
+        JSONObject studentJson = new JSONObject();
+        studentJson.put("id", id);
+        studentJson.put("name", name);
+        studentJson.put("age", age);
+
+        when(studentRepository.findStateById(id)).thenReturn(Optional.of(new StudentState(name, age, 7L, 4)));
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .put("/student")
+                        .header(HttpHeaders.IF_MATCH, "\"s3-f7\"")
+                        .content(studentJson.toString())
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPreconditionFailed());
+        verify(versionedUpdater, never()).update(any(), any(), any(), anyMap(), any());
+        verify(studentRepository, never()).findById(id);
+    }
+
+    @Test
+    void patchStudent_TestSetsOnlyGivenFields() throws Exception {
+        Student testStudent = new Student(id, name, 21);
+        testStudent.setVersion(4);
+        when(studentRepository.findStateById(id)).thenReturn(Optional.of(new StudentState(name, 20, null, 3)));
+        when(versionedUpdater.update(eq(Student.class), eq(id), eq(3L), eq(Map.of("age", 21)),
+                eq(CollectionCounter.STUDENTS))).thenReturn(1);
+        when(studentRepository.findById(id)).thenReturn(Optional.of(testStudent));
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .patch("/student/1")
+                        .header(HttpHeaders.IF_MATCH, "\"s3\"")
+                        .content("{\"age\": 21}")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"s4\""))
+                .andExpect(jsonPath("$.name").value(name))
+                .andExpect(jsonPath("$.age").value(21));
+    }
+
+    @Test
+    void patchStudent_TestRejectsFacultyWithoutId() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders
+                        .patch("/student/1")
+                        .content("{\"faculty\": {\"name\": \"Стихия\"}}")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        verify(versionedUpdater, never()).update(any(), any(), any(), anyMap(), any());
     }
 
     @Test
@@ -162,7 +271,7 @@ public class StudentControllerWebMvcTest {
         s2.setId(2L);
         s2.setName("Марья");
 
-        when(studentRepository.findAll()).thenReturn(Arrays.asList(s1, s2));
+        when(studentRepository.findBy(ArgumentMatchers.<Specification<Student>>any(), any())).thenReturn(Arrays.asList(s1, s2));
 
         mockMvc.perform(MockMvcRequestBuilders
                         .get("/student")
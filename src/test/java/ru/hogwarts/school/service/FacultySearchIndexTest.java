@@ -0,0 +1,151 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.repository.FacultyRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FacultySearchIndexTest {
+    private static final int BENCHMARK_FACULTIES = 200_000;
+    private static final int BENCHMARK_QUERIES = 2_000;
+
+    private FacultyRepository facultyRepository;
+    private FacultySearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        facultyRepository = mock(FacultyRepository.class);
+        when(facultyRepository.findAll()).thenReturn(List.of(
+                new Faculty(1L, "Гриффиндор", "Красный"),
+                new Faculty(2L, "Слизерин", "Зелёный"),
+                new Faculty(3L, "Огонь Запад", "Красный"),
+                new Faculty(4L, "Грифон", "Синий")));
+        index = new FacultySearchIndex(facultyRepository);
+    }
+
+    @Test
+    void findByNameOrColor_TestMatchesWholeValueIgnoringCase() {
+        assertThat(index.findByNameOrColor("красный")).extracting(Faculty::getId).containsExactlyInAnyOrder(1L, 3L);
+        assertThat(index.findByNameOrColor("СЛИЗЕРИН")).extracting(Faculty::getId).containsExactly(2L);
+        assertThat(index.findByNameOrColor("огонь")).isEmpty();
+    }
+
+    @Test
+    void search_TestRanksExactThenPrefixThenFuzzy() {
+        assertThat(index.search("гриф", null)).extracting(Faculty::getId).containsExactly(4L, 1L);
+        assertThat(index.search("грифон", null)).extracting(Faculty::getId).containsExactly(4L);
+        assertThat(index.search("запад", null)).extracting(Faculty::getId).containsExactly(3L);
+        assertThat(index.search("слезерин", null)).extracting(Faculty::getId).containsExactly(2L);
+        assertThat(index.search("гриф", 1)).hasSize(1);
+        assertThatThrownBy(() -> index.search("гриф", 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void writes_TestKeepTheTrieCurrent() {
+        index.search("гриф", null);
+
+        index.facultiesSaved(List.of(new Faculty(4L, "Ворон", "Синий"), new Faculty(5L, "Гриф", "Белый")));
+        index.facultiesDeleted(List.of(1L));
+
+        assertThat(index.search("гриф", null)).extracting(Faculty::getId).containsExactly(5L);
+        assertThat(index.findByNameOrColor("ворон")).extracting(Faculty::getId).containsExactly(4L);
+        assertThat(index.findByNameOrColor("грифон")).isEmpty();
+    }
+
+    @Test
+    void search_TestFindsEveryPrefixMatchAScanFinds() {
+        List<Faculty> faculties = randomFaculties(2_000);
+        when(facultyRepository.findAll()).thenReturn(faculties);
+        index = new FacultySearchIndex(facultyRepository);
+
+        for (String query : randomQueries(faculties, 200)) {
+            List<Long> scanned = scan(faculties, query);
+            assertThat(scanned).isNotEmpty().hasSizeLessThanOrEqualTo(20);
+            assertThat(index.search(query, 20)).extracting(Faculty::getId).containsAll(scanned);
+        }
+    }
+
+    @Test
+    @Tag("perf")
+    void throughput_TestTrieAgainstScan(TestReporter reporter) {
+        List<Faculty> faculties = randomFaculties(BENCHMARK_FACULTIES);
+        when(facultyRepository.findAll()).thenReturn(faculties);
+        List<String> queries = randomQueries(faculties, BENCHMARK_QUERIES);
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        index = new FacultySearchIndex(facultyRepository);
+        index.findByNameOrColor("");
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+
+        long trieStart = System.nanoTime();
+        for (String query : queries) {
+            assertThat(index.search(query, 20)).isNotEmpty();
+        }
+        long trieNanos = System.nanoTime() - trieStart;
+        long scanStart = System.nanoTime();
+        for (String query : queries) {
+            assertThat(scan(faculties, query)).isNotEmpty();
+        }
+        long scanNanos = System.nanoTime() - scanStart;
+
+        reporter.publishEntry(Map.of(
+                "trieMicrosPerQuery", String.valueOf(trieNanos / 1000 / BENCHMARK_QUERIES),
+                "scanMicrosPerQuery", String.valueOf(scanNanos / 1000 / BENCHMARK_QUERIES),
+                "indexMiB", String.valueOf(Math.max(0, heapAfter - heapBefore) / (1024 * 1024))));
+        assertThat(trieNanos).isLessThan(scanNanos);
+    }
+
+    private static List<Faculty> randomFaculties(int count) {
+        Random random = new Random(7);
+        List<Faculty> faculties = new ArrayList<>();
+        for (long id = 1; id <= count; id++) {
+            faculties.add(new Faculty(id, randomWord(random), randomWord(random)));
+        }
+        return faculties;
+    }
+
+    private static List<String> randomQueries(List<Faculty> faculties, int count) {
+        Random random = new Random(11);
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            queries.add(faculties.get(random.nextInt(faculties.size())).getName().substring(0, 4));
+        }
+        return queries;
+    }
+
+    private static List<Long> scan(List<Faculty> faculties, String query) {
+        List<Long> found = new ArrayList<>();
+        for (Faculty faculty : faculties) {
+            if (faculty.getName().toLowerCase(Locale.ROOT).startsWith(query)
+                    || faculty.getColor().toLowerCase(Locale.ROOT).startsWith(query)) {
+                found.add(faculty.getId());
+            }
+        }
+        return found;
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int length = 6 + random.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('а' + random.nextInt(32)));
+        }
+        return word.toString();
+    }
+}
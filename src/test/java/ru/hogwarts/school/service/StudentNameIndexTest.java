@@ -0,0 +1,145 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentName;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StudentNameIndexTest {
+    private static final int BENCHMARK_STUDENTS = 200_000;
+    private static final int BENCHMARK_QUERIES = 2_000;
+
+    private StudentRepository studentRepository;
+    private StudentNameIndex index;
+
+    @BeforeEach
+    void setUp() {
+        studentRepository = mock(StudentRepository.class);
+        when(studentRepository.findAllNames()).thenReturn(List.of(
+                new StudentName(1L, "Гарри Поттер"),
+                new StudentName(2L, "Гермиона Грейнджер"),
+                new StudentName(3L, "Рон Уизли"),
+                new StudentName(4L, "Джинни Уизли")));
+        index = new StudentNameIndex(studentRepository);
+    }
+
+    @Test
+    void search_TestRanksByTrigramOverlap() {
+        assertThat(index.search("уизли", null)).containsExactly(3L, 4L);
+        assertThat(index.search("Рон Уизли", null)).startsWith(3L);
+        assertThat(index.search("гер", null)).startsWith(2L);
+        assertThat(index.search("поттэр", null)).containsExactly(1L);
+        assertThat(index.search("малфой", null)).isEmpty();
+        assertThat(index.search("уизли", 1)).hasSize(1);
+        assertThatThrownBy(() -> index.search("уизли", 101)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void writes_TestUpdateThePostings() {
+        index.search("уизли", null);
+
+        index.studentsSaved(List.of(new Student(4L, "Джинни Поттер", 16), new Student(5L, "Перси Уизли", 20)));
+        index.studentsDeleted(List.of(3L));
+
+        assertThat(index.search("уизли", null)).containsExactly(5L);
+        assertThat(index.search("поттер", null)).containsExactly(1L, 4L);
+    }
+
+    @Test
+    void search_TestFindsEveryNameAScanFinds() {
+        List<StudentName> names = randomNames(2_000);
+        when(studentRepository.findAllNames()).thenReturn(names);
+        index = new StudentNameIndex(studentRepository);
+
+        for (String query : randomQueries(names, 200)) {
+            List<Long> scanned = scan(names, query);
+            assertThat(scanned).isNotEmpty().hasSizeLessThanOrEqualTo(20);
+            assertThat(index.search(query, 20)).containsAll(scanned);
+        }
+    }
+
+    @Test
+    @Tag("perf")
+    void throughput_TestIndexAgainstScan(TestReporter reporter) {
+        List<StudentName> names = randomNames(BENCHMARK_STUDENTS);
+        when(studentRepository.findAllNames()).thenReturn(names);
+        List<String> queries = randomQueries(names, BENCHMARK_QUERIES);
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        index = new StudentNameIndex(studentRepository);
+        index.search("а", 1);
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+
+        long indexStart = System.nanoTime();
+        for (String query : queries) {
+            assertThat(index.search(query, 20)).isNotEmpty();
+        }
+        long indexNanos = System.nanoTime() - indexStart;
+        long scanStart = System.nanoTime();
+        for (String query : queries) {
+            assertThat(scan(names, query)).isNotEmpty();
+        }
+        long scanNanos = System.nanoTime() - scanStart;
+
+        reporter.publishEntry(Map.of(
+                "indexMicrosPerQuery", String.valueOf(indexNanos / 1000 / BENCHMARK_QUERIES),
+                "scanMicrosPerQuery", String.valueOf(scanNanos / 1000 / BENCHMARK_QUERIES),
+                "indexMiB", String.valueOf(Math.max(0, heapAfter - heapBefore) / (1024 * 1024))));
+        assertThat(indexNanos).isLessThan(scanNanos);
+    }
+
+    private static List<StudentName> randomNames(int count) {
+        Random random = new Random(7);
+        List<StudentName> names = new ArrayList<>();
+        for (long id = 1; id <= count; id++) {
+            names.add(new StudentName(id, randomWord(random) + " " + randomWord(random)));
+        }
+        return names;
+    }
+
+    private static List<String> randomQueries(List<StudentName> names, int count) {
+        Random random = new Random(11);
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = names.get(random.nextInt(names.size())).name();
+            queries.add(name.substring(0, name.indexOf(' ')));
+        }
+        return queries;
+    }
+
+    private static List<Long> scan(List<StudentName> names, String query) {
+        List<Long> found = new ArrayList<>();
+        for (StudentName name : names) {
+            if (name.name().toLowerCase(Locale.ROOT).contains(query)) {
+                found.add(name.id());
+            }
+        }
+        return found;
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int length = 6 + random.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('а' + random.nextInt(32)));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,150 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.hogwarts.school.model.CollectionVersion;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repository.FacultyRepository;
+import ru.hogwarts.school.repository.StudentRepository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StudentReadModelTest {
+    private final Faculty fire = new Faculty(1L, "Огонь", "Красный");
+    private final Faculty water = new Faculty(2L, "Вода", "Синий");
+
+    private StudentRepository studentRepository;
+    private StudentReadModel readModel;
+
+    @BeforeEach
+    void setUp() {
+        studentRepository = mock(StudentRepository.class);
+        FacultyRepository facultyRepository = mock(FacultyRepository.class);
+        when(studentRepository.findAll()).thenReturn(List.of(
+                new Student(5L, "Иван", 20, fire),
+                new Student(3L, "Марья", 18, water),
+                new Student(4L, "Пётр", 20, null),
+                new Student(1L, "Анна", 25, fire)));
+        when(facultyRepository.findAll()).thenReturn(List.of(fire, water));
+        readModel = new StudentReadModel(studentRepository, facultyRepository, true);
+    }
+
+    @Test
+    void findByAgeBetween_TestOrdersByAgeThenId() {
+        assertThat(readModel.findByAgeBetween(18, 20)).extracting(Student::getId).containsExactly(3L, 4L, 5L);
+        assertThat(readModel.findByAgeBetween(21, 24)).isEmpty();
+        assertThat(readModel.findByAgeBetween(Integer.MIN_VALUE, Integer.MAX_VALUE)).hasSize(4);
+        assertThat(readModel.findByAgeBetween(25, 25)).singleElement()
+                .satisfies(student -> assertThat(student.getFaculty().getName()).isEqualTo("Огонь"));
+        verify(studentRepository, times(1)).findAll();
+    }
+
+    @Test
+    void findByFacultyId_TestUsesPostingLists() {
+        assertThat(readModel.findByFacultyId(1L)).extracting(Student::getId).containsExactly(1L, 5L);
+        assertThat(readModel.findByFacultyId(2L)).extracting(Student::getId).containsExactly(3L);
+        assertThat(readModel.findByFacultyId(9L)).isEmpty();
+    }
+
+    @Test
+    void writes_TestPublishNewSnapshots() {
+        readModel.findByAgeBetween(0, 100);
+
+        readModel.studentsSaved(List.of(new Student(5L, "Иван", 30, water), new Student(7L, "Ольга", 19, fire)));
+        readModel.studentsDeleted(List.of(3L));
+        readModel.facultiesSaved(List.of(new Faculty(1L, "Пламя", "Алый")));
+
+        assertThat(readModel.findByAgeBetween(0, 100)).extracting(Student::getId).containsExactly(7L, 4L, 1L, 5L);
+        assertThat(readModel.findByFacultyId(1L)).extracting(Student::getId).containsExactly(1L, 7L);
+        assertThat(readModel.findByFacultyId(2L)).extracting(Student::getId).containsExactly(5L);
+        assertThat(readModel.findByFacultyId(1L)).allSatisfy(
+                student -> assertThat(student.getFaculty().getName()).isEqualTo("Пламя"));
+    }
+
+    @Test
+    void writes_TestWaitForCommit() {
+        readModel.findByAgeBetween(0, 100);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            readModel.studentsDeleted(List.of(1L));
+            assertThat(readModel.findByFacultyId(1L)).hasSize(2);
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(readModel.findByFacultyId(1L)).extracting(Student::getId).containsExactly(5L);
+    }
+
+    @Test
+    void getVersion_TestChangesOnlyOnceTheWriteIsApplied() {
+        CollectionVersion loaded = readModel.getVersion();
+        assertThat(readModel.getVersion()).isEqualTo(loaded);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            readModel.studentsDeleted(List.of(1L));
+            assertThat(readModel.getVersion()).isEqualTo(loaded);
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(readModel.getVersion()).isNotEqualTo(loaded);
+    }
+
+    @Test
+    void writes_TestMatchRebuildingFromScratch() {
+        Random random = new Random(42);
+        Map<Long, Student> students = new TreeMap<>();
+        for (long id = 1; id <= 500; id++) {
+            students.put(id, new Student(id, "Студент " + id, 11 + random.nextInt(8), random.nextBoolean() ? fire : water));
+        }
+        when(studentRepository.findAll()).thenReturn(List.copyOf(students.values()));
+        readModel.findByAgeBetween(0, 100);
+
+        for (int round = 0; round < 200; round++) {
+            long id = 1 + random.nextInt(600);
+            if (random.nextInt(4) == 0) {
+                students.remove(id);
+                readModel.studentsDeleted(List.of(id));
+            } else {
+                Faculty faculty = switch (random.nextInt(3)) {
+                    case 0 -> fire;
+                    case 1 -> water;
+                    default -> null;
+                };
+                Student student = new Student(id, "Студент " + id, 11 + random.nextInt(8), faculty);
+                students.put(id, student);
+                readModel.studentsSaved(List.of(student));
+            }
+        }
+
+        FacultyRepository facultyRepository = mock(FacultyRepository.class);
+        when(facultyRepository.findAll()).thenReturn(List.of(fire, water));
+        StudentRepository rebuiltRepository = mock(StudentRepository.class);
+        when(rebuiltRepository.findAll()).thenReturn(List.copyOf(students.values()));
+        StudentReadModel rebuilt = new StudentReadModel(rebuiltRepository, facultyRepository, true);
+        for (int age = 10; age <= 19; age++) {
+            assertThat(readModel.findByAgeBetween(age, 19)).extracting(Student::getId)
+                    .containsExactlyElementsOf(rebuilt.findByAgeBetween(age, 19).stream().map(Student::getId).toList());
+        }
+        for (long facultyId = 1; facultyId <= 2; facultyId++) {
+            assertThat(readModel.findByFacultyId(facultyId)).extracting(Student::getId)
+                    .containsExactlyElementsOf(rebuilt.findByFacultyId(facultyId).stream().map(Student::getId).toList());
+        }
+    }
+}
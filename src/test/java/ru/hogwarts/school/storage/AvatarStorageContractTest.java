@@ -0,0 +1,159 @@
+package ru.hogwarts.school.storage;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Behaviour every {@link AvatarStorage} backend has to share; each backend test only supplies the storage.
+ */
+abstract class AvatarStorageContractTest {
+    private static final int THROUGHPUT_BLOBS = 200;
+    private static final int THROUGHPUT_BLOB_SIZE = 16 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    protected abstract AvatarStorage storage() throws Exception;
+
+    @Test
+    void put_TestBytesRoundTrip() throws Exception {
+        AvatarStorage storage = storage();
+        byte[] content = randomBytes(1000, 1);
+
+        storage.put("abcd-1", content);
+
+        assertThat(storage.read("abcd-1")).isEqualTo(content);
+        assertThat(storage.stat("abcd-1").size()).isEqualTo(content.length);
+        assertThat(storage.exists("abcd-1")).isTrue();
+    }
+
+    @Test
+    void put_TestFileRoundTrip() throws Exception {
+        AvatarStorage storage = storage();
+        byte[] content = randomBytes(200_000, 2);
+        Path source = Files.write(tempDir.resolve("upload"), content);
+
+        storage.put("abcd-2", source);
+
+        try (InputStream is = storage.open("abcd-2")) {
+            assertThat(is.readAllBytes()).isEqualTo(content);
+        }
+        assertThat(storage.stat("abcd-2").size()).isEqualTo(content.length);
+    }
+
+    @Test
+    void put_TestOverwriteReplacesContent() throws Exception {
+        AvatarStorage storage = storage();
+        storage.put("abcd-3", randomBytes(500, 3));
+        byte[] replacement = randomBytes(300, 4);
+
+        storage.put("abcd-3", replacement);
+
+        assertThat(storage.read("abcd-3")).isEqualTo(replacement);
+        assertThat(storage.stat("abcd-3").size()).isEqualTo(replacement.length);
+    }
+
+    @Test
+    void delete_TestRemovesBlob() throws Exception {
+        AvatarStorage storage = storage();
+        storage.put("abcd-4", randomBytes(100, 5));
+
+        storage.delete("abcd-4");
+        storage.delete("abcd-4");
+
+        assertThat(storage.stat("abcd-4")).isNull();
+        assertThat(storage.exists("abcd-4")).isFalse();
+    }
+
+    @Test
+    void open_TestMissingKeyThrows() throws Exception {
+        AvatarStorage storage = storage();
+
+        assertThat(storage.stat("abcd-missing")).isNull();
+        assertThatThrownBy(() -> storage.read("abcd-missing")).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    void stat_TestFileBackedBlobPointsAtContent() throws Exception {
+        AvatarStorage storage = storage();
+        byte[] content = randomBytes(4096, 6);
+        storage.put("abcd-5", content);
+
+        StoredBlob blob = storage.stat("abcd-5");
+
+        if (blob.isFileBacked()) {
+            assertThat(Files.readAllBytes(blob.file())).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void put_TestConcurrentWritersAndReaders() throws Exception {
+        AvatarStorage storage = storage();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                int seed = i;
+                futures.add(executor.submit(() -> {
+                    byte[] content = randomBytes(2048 + seed, seed);
+                    storage.put("conc-" + seed, content);
+                    assertThat(storage.read("conc-" + seed)).isEqualTo(content);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < 64; i++) {
+            assertThat(storage.read("conc-" + i)).isEqualTo(randomBytes(2048 + i, i));
+        }
+    }
+
+    @Test
+    @Tag("perf")
+    void throughput_TestWriteAndRead(TestReporter reporter) throws Exception {
+        AvatarStorage storage = storage();
+        byte[] content = randomBytes(THROUGHPUT_BLOB_SIZE, 7);
+
+        long writeStart = System.nanoTime();
+        for (int i = 0; i < THROUGHPUT_BLOBS; i++) {
+            storage.put("tput-" + i, content);
+        }
+        long writeNanos = System.nanoTime() - writeStart;
+        long readStart = System.nanoTime();
+        for (int i = 0; i < THROUGHPUT_BLOBS; i++) {
+            assertThat(storage.read("tput-" + i)).hasSize(THROUGHPUT_BLOB_SIZE);
+        }
+        long readNanos = System.nanoTime() - readStart;
+
+        reporter.publishEntry(Map.of(
+                "writesPerSecond", String.valueOf(THROUGHPUT_BLOBS * 1_000_000_000L / writeNanos),
+                "readsPerSecond", String.valueOf(THROUGHPUT_BLOBS * 1_000_000_000L / readNanos)));
+    }
+
+    static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,24 @@
+package ru.hogwarts.school.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.hogwarts.school.repository.AvatarBlobRepository;
+
+import java.util.UUID;
+
+@SpringBootTest
+class DatabaseAvatarStorageTest extends AvatarStorageContractTest {
+
+    @Autowired
+    private AvatarBlobRepository avatarBlobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Override
+    protected AvatarStorage storage() {
+        // A fresh namespace per test keeps runs independent without cleaning the table.
+        return new DatabaseAvatarStorage(avatarBlobRepository, transactionManager, "test-" + UUID.randomUUID());
+    }
+}
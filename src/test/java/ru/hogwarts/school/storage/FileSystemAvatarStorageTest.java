@@ -0,0 +1,9 @@
+package ru.hogwarts.school.storage;
+
+class FileSystemAvatarStorageTest extends AvatarStorageContractTest {
+
+    @Override
+    protected AvatarStorage storage() throws Exception {
+        return new FileSystemAvatarStorage(tempDir.resolve("blobs"));
+    }
+}
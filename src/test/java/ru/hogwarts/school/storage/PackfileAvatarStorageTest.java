@@ -0,0 +1,97 @@
+package ru.hogwarts.school.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PackfileAvatarStorageTest extends AvatarStorageContractTest {
+    private PackfileAvatarStorage storage;
+
+    @Override
+    protected AvatarStorage storage() throws Exception {
+        storage = new PackfileAvatarStorage(packFile());
+        return storage;
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        storage.close();
+    }
+
+    @Test
+    void open_TestIndexIsRebuiltOnReopen() throws Exception {
+        storage();
+        byte[] kept = randomBytes(700, 10);
+        storage.put("keep-1", randomBytes(100, 11));
+        storage.put("keep-1", kept);
+        storage.put("gone-1", randomBytes(100, 12));
+        storage.delete("gone-1");
+        storage.close();
+
+        storage = new PackfileAvatarStorage(packFile());
+
+        assertThat(storage.read("keep-1")).isEqualTo(kept);
+        assertThat(storage.stat("gone-1")).isNull();
+        assertThat(storage.getGarbageBytes()).isEqualTo(200);
+    }
+
+    @Test
+    void open_TestTornTailIsTruncated() throws Exception {
+        storage();
+        byte[] kept = randomBytes(300, 13);
+        storage.put("keep-2", kept);
+        storage.put("torn-2", randomBytes(300, 14));
+        // Cuts the last record off halfway through its data.
+        long intact = Files.size(packFile()) - 150;
+        storage.close();
+        try (FileChannel channel = FileChannel.open(packFile(), WRITE)) {
+            channel.truncate(intact);
+        }
+
+        storage = new PackfileAvatarStorage(packFile());
+        storage.put("next-2", randomBytes(50, 15));
+
+        assertThat(storage.read("keep-2")).isEqualTo(kept);
+        assertThat(storage.stat("torn-2")).isNull();
+        assertThat(storage.read("next-2")).isEqualTo(randomBytes(50, 15));
+    }
+
+    @Test
+    void compact_TestKeepsLiveBlobsAndShrinksFile() throws Exception {
+        storage();
+        byte[] kept = randomBytes(400, 16);
+        storage.put("keep-3", randomBytes(1000, 17));
+        storage.put("keep-3", kept);
+        storage.put("gone-3", randomBytes(1000, 18));
+        storage.delete("gone-3");
+        InputStream before = storage.open("keep-3");
+        long sizeBefore = Files.size(packFile());
+
+        storage.compact();
+
+        assertThat(Files.size(packFile())).isLessThan(sizeBefore);
+        assertThat(storage.getGarbageBytes()).isZero();
+        assertThat(storage.read("keep-3")).isEqualTo(kept);
+        assertThat(storage.stat("keep-3").isFileBacked()).isFalse();
+        // A stream keeps its own generation of the pack open however many compactions follow.
+        storage.compact();
+        assertThat(before.readAllBytes()).isEqualTo(kept);
+        before.close();
+        storage.close();
+        storage = new PackfileAvatarStorage(packFile());
+        assertThat(storage.read("keep-3")).isEqualTo(kept);
+        assertThat(storage.stat("gone-3")).isNull();
+    }
+
+    private Path packFile() {
+        return tempDir.resolve("blobs.pack");
+    }
+}
@@ -0,0 +1,171 @@
+package ru.hogwarts.school.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.hogwarts.school.model.PreviewContent;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static ru.hogwarts.school.storage.AvatarStorageContractTest.randomBytes;
+
+class PreviewPackfileTest {
+
+    @TempDir
+    Path tempDir;
+
+    private PreviewPackfile pack;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        pack.close();
+    }
+
+    @Test
+    void get_TestReturnsAppendedPreview() throws Exception {
+        pack = open();
+        PreviewContent content = preview(1);
+
+        assertThat(pack.put(1L, 128, content, pack.stamp())).isTrue();
+
+        PreviewContent packed = pack.get(1L, 128);
+        assertThat(packed.data()).isEqualTo(content.data());
+        assertThat(packed.mediaType()).isEqualTo("image/png");
+        assertThat(packed.eTag()).isEqualTo(content.eTag());
+        assertThat(pack.get(1L, 256)).isNull();
+        assertThat(pack.get(2L, 128)).isNull();
+    }
+
+    @Test
+    void put_TestSkipsWriteAfterInvalidation() throws Exception {
+        pack = open();
+        long stamp = pack.stamp();
+
+        pack.invalidate(1L);
+
+        assertThat(pack.put(1L, 128, preview(1), stamp)).isFalse();
+        assertThat(pack.get(1L, 128)).isNull();
+    }
+
+    @Test
+    void invalidate_TestDropsEveryWidth() throws Exception {
+        pack = open();
+        pack.put(1L, 64, preview(1), pack.stamp());
+        pack.put(1L, 128, preview(2), pack.stamp());
+
+        pack.invalidate(1L);
+
+        assertThat(pack.get(1L, 64)).isNull();
+        assertThat(pack.get(1L, 128)).isNull();
+        assertThat(pack.getStats().garbageBytes()).isEqualTo(preview(1).data().length + preview(2).data().length);
+    }
+
+    @Test
+    void get_TestReadsEarlierRecordsAfterManyAppends() throws Exception {
+        pack = open();
+        for (int i = 0; i < 2000; i++) {
+            pack.put(i, 128, preview(i % 50), pack.stamp());
+        }
+
+        assertThat(pack.get(0L, 128).data()).isEqualTo(preview(0).data());
+        assertThat(pack.get(1999L, 128).data()).isEqualTo(preview(1999 % 50).data());
+    }
+
+    @Test
+    void invalidateAll_TestDropsEveryStudentAcrossReopen() throws Exception {
+        pack = open();
+        pack.put(1L, 128, preview(1), pack.stamp());
+        pack.put(2L, 128, preview(2), pack.stamp());
+        long stamp = pack.stamp();
+
+        pack.invalidateAll();
+        assertThat(pack.put(1L, 128, preview(1), stamp)).isFalse();
+        pack.put(3L, 128, preview(3), pack.stamp());
+        pack.close();
+        pack = open();
+
+        assertThat(pack.get(1L, 128)).isNull();
+        assertThat(pack.get(2L, 128)).isNull();
+        assertThat(pack.get(3L, 128).data()).isEqualTo(preview(3).data());
+        assertThat(pack.getStats().garbageBytes()).isEqualTo(preview(1).data().length + preview(2).data().length);
+    }
+
+    @Test
+    void open_TestIndexIsRebuiltOnReopen() throws Exception {
+        pack = open();
+        pack.put(1L, 128, preview(1), pack.stamp());
+        pack.put(1L, 128, preview(2), pack.stamp());
+        pack.put(2L, 128, preview(3), pack.stamp());
+        pack.put(3L, 128, preview(4), pack.stamp());
+        pack.invalidate(3L);
+        pack.close();
+
+        pack = open();
+
+        assertThat(pack.get(1L, 128).data()).isEqualTo(preview(2).data());
+        assertThat(pack.get(2L, 128).eTag()).isEqualTo(preview(3).eTag());
+        assertThat(pack.get(3L, 128)).isNull();
+        assertThat(pack.getStats().students()).isEqualTo(2);
+    }
+
+    @Test
+    void open_TestTornTailIsTruncated() throws Exception {
+        pack = open();
+        pack.put(1L, 128, preview(1), pack.stamp());
+        long intact = Files.size(packFile());
+        pack.put(2L, 128, preview(2), pack.stamp());
+        pack.close();
+        try (FileChannel channel = FileChannel.open(packFile(), WRITE)) {
+            channel.truncate(intact + 20);
+        }
+
+        pack = open();
+        pack.put(3L, 128, preview(3), pack.stamp());
+
+        assertThat(pack.get(1L, 128).data()).isEqualTo(preview(1).data());
+        assertThat(pack.get(2L, 128)).isNull();
+        assertThat(pack.get(3L, 128).data()).isEqualTo(preview(3).data());
+    }
+
+    @Test
+    void compact_TestKeepsLiveRecordsAndShrinksFile() throws Exception {
+        pack = open();
+        for (int i = 0; i < 10; i++) {
+            pack.put(1L, 128, preview(i), pack.stamp());
+        }
+        pack.put(2L, 64, preview(20), pack.stamp());
+        PreviewContent beforeCompaction = pack.get(1L, 128);
+        long sizeBefore = Files.size(packFile());
+
+        pack.compact();
+
+        assertThat(Files.size(packFile())).isLessThan(sizeBefore);
+        assertThat(pack.get(1L, 128).data()).isEqualTo(preview(9).data());
+        assertThat(pack.get(2L, 64).data()).isEqualTo(preview(20).data());
+        assertThat(beforeCompaction.data()).isEqualTo(preview(9).data());
+        assertThat(pack.getStats().garbageBytes()).isZero();
+
+        pack.put(3L, 128, preview(30), pack.stamp());
+        pack.close();
+        pack = open();
+        assertThat(pack.get(1L, 128).data()).isEqualTo(preview(9).data());
+        assertThat(pack.get(3L, 128).data()).isEqualTo(preview(30).data());
+    }
+
+    private PreviewPackfile open() throws IOException {
+        return new PreviewPackfile(packFile());
+    }
+
+    private Path packFile() {
+        return tempDir.resolve("previews.pack");
+    }
+
+    private static PreviewContent preview(int seed) {
+        return new PreviewContent(randomBytes(1000 + seed, seed), "image/png", "\"etag-" + seed + "\"");
+    }
+}